@@ -0,0 +1,189 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+/**
+ * Draws the watchface in ambient mode.
+ *
+ * Everything except the hand (background, ticks, logo, appointments) is baked into
+ * one opaque bitmap, which is re-rendered only when its key changes (quadrant,
+ * appointments, mute mode) or the device properties change.  So each ambient tick is
+ * just one bitmap blit plus the hand.
+ *
+ * On low-bit ambient screens the baked frame is reduced to pure black and white,
+ * so that anti-aliasing or gray pixels never appear.  On screens that need burn-in
+ * protection, the frame (and the hand) is shifted by a few pixels each minute,
+ * cycling around a small square.
+ *
+ * Note that setSize(...) must be called before anything is drawn.
+ */
+class AmbientRenderer {
+
+    /** Draws the ambient face (without the hand) onto a black canvas. */
+    interface Painter {
+        void drawAmbientFace(Canvas canvas);
+    }
+
+    /** Pixels per step of the burn-in shift. */
+    static final int BURN_IN_STEP = 2;
+
+    /** The burn-in offsets (in steps), one per minute, around a 3x3 square. */
+    private static final int[] SHIFT_X = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] SHIFT_Y = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+    /** Pixels at least this bright (0..255) are white on low-bit screens, others are black. */
+    static final int LOW_BIT_THRESHOLD = 96;
+
+    /** Alpha of the paints in mute mode, to dim the face. */
+    static final int MUTE_ALPHA = 100;
+
+    private final Painter mPainter;
+
+    private Bitmap mFrame;
+    private int[] mPixels;
+    private long mKey;
+    private boolean mValid;
+
+    private boolean mLowBit;
+    private boolean mBurnInProtection;
+
+    /** The offset used by the last draw, so the hand can be shifted too. */
+    private int mOffsetX;
+    private int mOffsetY;
+
+    private final Canvas mOffscreen = new Canvas();
+
+    AmbientRenderer(Painter painter) {
+        mPainter = painter;
+    }
+
+    /**
+     * (Re)allocates the frame to match the size of the screen.
+     *
+     * @param width screen width in pixels.
+     * @param height screen height in pixels.
+     */
+    void setSize(int width, int height) {
+        if (mFrame != null && mFrame.getWidth() == width && mFrame.getHeight() == height) {
+            return;
+        }
+        mFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mPixels = null;
+        mValid = false;
+    }
+
+    /**
+     * Sets the device properties.
+     *
+     * @param lowBit true if the screen shows fewer colors in ambient mode.
+     * @param burnInProtection true if the screen needs pixel shifting in ambient mode.
+     */
+    void setProperties(boolean lowBit, boolean burnInProtection) {
+        if (mLowBit != lowBit) {
+            mLowBit = lowBit;
+            mValid = false;
+        }
+        mBurnInProtection = burnInProtection;
+    }
+
+    /**
+     * Sets the invalidation key of the ambient face.
+     *
+     * @param key a value that changes whenever the appearance of the face changes.
+     */
+    void setKey(long key) {
+        if (mKey != key) {
+            mKey = key;
+            mValid = false;
+        }
+    }
+
+    /** Forces the frame to be re-rendered at the next draw. */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Draws the ambient face, shifted for the given minute if burn-in protection is needed.
+     *
+     * @param canvas the screen canvas.
+     * @param minuteOfDay 0..1439.
+     */
+    void draw(Canvas canvas, int minuteOfDay) {
+        if (!mValid) {
+            bake();
+        }
+        if (mBurnInProtection) {
+            int index = minuteOfDay % SHIFT_X.length;
+            mOffsetX = SHIFT_X[index] * BURN_IN_STEP;
+            mOffsetY = SHIFT_Y[index] * BURN_IN_STEP;
+            // the frame no longer covers the whole screen.
+            canvas.drawColor(Color.BLACK);
+        } else {
+            mOffsetX = 0;
+            mOffsetY = 0;
+        }
+        canvas.drawBitmap(mFrame, mOffsetX, mOffsetY, null);
+    }
+
+    /** Horizontal shift of the last frame, in pixels. */
+    int getOffsetX() {
+        return mOffsetX;
+    }
+
+    /** Vertical shift of the last frame, in pixels. */
+    int getOffsetY() {
+        return mOffsetY;
+    }
+
+    private void bake() {
+        mFrame.eraseColor(Color.BLACK);
+        mOffscreen.setBitmap(mFrame);
+        mPainter.drawAmbientFace(mOffscreen);
+        mOffscreen.setBitmap(null);
+        if (mLowBit) {
+            int width = mFrame.getWidth();
+            int height = mFrame.getHeight();
+            if (mPixels == null) {
+                mPixels = new int[width * height];
+            }
+            mFrame.getPixels(mPixels, 0, width, 0, 0, width, height);
+            for (int i = 0; i < mPixels.length; i++) {
+                mPixels[i] = toLowBit(mPixels[i]);
+            }
+            mFrame.setPixels(mPixels, 0, width, 0, 0, width, height);
+        }
+        mValid = true;
+    }
+
+    /**
+     * The alpha for the ambient paints.
+     * Low-bit screens are not dimmed in mute mode, since the dimmed grays would
+     * fall below LOW_BIT_THRESHOLD and disappear completely.
+     *
+     * @param muteMode true in mute mode.
+     * @param lowBit true if the screen shows fewer colors in ambient mode.
+     * @return 0..255
+     */
+    static int ambientAlpha(boolean muteMode, boolean lowBit) {
+        return muteMode && !lowBit ? MUTE_ALPHA : 255;
+    }
+
+    /**
+     * Reduces an opaque color to black or white, by its brightness.
+     * This takes the channels out with shifts rather than Color.red etc., so that
+     * it also works in plain unit tests, where the android.graphics methods are stubs.
+     *
+     * @param color an ARGB color.
+     * @return Color.WHITE or Color.BLACK.
+     */
+    static int toLowBit(int color) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        int luma = (red * 77 + green * 150 + blue * 29) >> 8;
+        return luma >= LOW_BIT_THRESHOLD ? Color.WHITE : Color.BLACK;
+    }
+}
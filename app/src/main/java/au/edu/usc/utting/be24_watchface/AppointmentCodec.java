@@ -0,0 +1,114 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A flat binary encoding of calendar appointment instances, for passing query results
+ * (e.g. from CalendarQueryService) to the face in a Bundle byte array.
+ *
+ * The format is a header (magic number and instance count), followed by one fixed-size
+ * record per instance: id, begin and end (epoch millis), flags and color.  So encoding
+ * is just a few puts into one growing buffer, and decoding reads each field straight
+ * out of the byte array into a Sink (such as AppointmentIndex.DaySlice), with no
+ * intermediate objects.  This is much smaller and faster than serializing a list.
+ *
+ * The id is kept so that instances that cross midnight are still shown once
+ * (see AppointmentIndex.view).
+ */
+final class AppointmentCodec {
+    /** Identifies our format ("BEA" + version number). */
+    static final int MAGIC = 0x42454101;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 32;
+    static final int FLAG_ALL_DAY = 1;
+
+    private AppointmentCodec() {
+    }
+
+    /** Receives each decoded instance. */
+    interface Sink {
+        /**
+         * @param id unique id of this instance (CalendarContract.Instances._ID).
+         * @param begin start time in epoch millis.
+         * @param end end time in epoch millis.
+         * @param allDay true for all-day events.
+         * @param color the calendar color.
+         */
+        void add(long id, long begin, long end, boolean allDay, int color);
+    }
+
+    /** Collects instances, then returns them as one byte array. */
+    static final class Encoder {
+        private ByteBuffer mBuffer = ByteBuffer.allocate(HEADER_BYTES + 16 * RECORD_BYTES);
+        private int mCount = 0;
+
+        Encoder() {
+            mBuffer.putInt(MAGIC).putInt(0);
+        }
+
+        /**
+         * Adds one instance.
+         *
+         * @return this encoder.
+         */
+        Encoder add(long id, long begin, long end, boolean allDay, int color) {
+            if (mBuffer.remaining() < RECORD_BYTES) {
+                ByteBuffer bigger = ByteBuffer.allocate(mBuffer.capacity() * 2);
+                mBuffer.flip();
+                bigger.put(mBuffer);
+                mBuffer = bigger;
+            }
+            mBuffer.putLong(id)
+                    .putLong(begin)
+                    .putLong(end)
+                    .putInt(allDay ? FLAG_ALL_DAY : 0)
+                    .putInt(color);
+            mCount++;
+            return this;
+        }
+
+        /** Number of instances added so far. */
+        int size() {
+            return mCount;
+        }
+
+        /** @return the encoded instances (HEADER_BYTES + size() * RECORD_BYTES bytes). */
+        byte[] toByteArray() {
+            mBuffer.putInt(4, mCount);
+            return Arrays.copyOf(mBuffer.array(), mBuffer.position());
+        }
+    }
+
+    /**
+     * Decodes all the instances in an encoded array.
+     *
+     * @param data from Encoder.toByteArray().
+     * @param sink receives each instance, in the order they were added.
+     * @return the number of instances.
+     * @throws IOException if the data is not in our format, or is truncated.
+     */
+    static int decode(byte[] data, Sink sink) throws IOException {
+        if (data == null || data.length < HEADER_BYTES) {
+            throw new IOException("missing appointments header");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("wrong appointments format");
+        }
+        int count = buf.getInt(4);
+        if (count < 0 || count != (data.length - HEADER_BYTES) / RECORD_BYTES
+                || (data.length - HEADER_BYTES) % RECORD_BYTES != 0) {
+            throw new IOException("appointments data has the wrong length");
+        }
+        for (int pos = HEADER_BYTES; pos < data.length; pos += RECORD_BYTES) {
+            sink.add(buf.getLong(pos),
+                    buf.getLong(pos + 8),
+                    buf.getLong(pos + 16),
+                    (buf.getInt(pos + 24) & FLAG_ALL_DAY) != 0,
+                    buf.getInt(pos + 28));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,218 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * An index of calendar appointment instances over a rolling window of days.
+ *
+ * The calendar is queried one local day at a time, and each day's instances are stored
+ * as a DaySlice, keyed by the epoch millis of the start of that day.  Instances are stored
+ * as raw [begin, end) epoch-millisecond intervals, so views of the index (today, or the
+ * next 24 hours) can be built by clipping those intervals, without re-querying the calendar.
+ * When the day rolls over, only the new day needs to be queried, and old days are evicted.
+ *
+ * This class is not thread-safe.  It is used only by the FaceDataWorker thread.
+ */
+class AppointmentIndex {
+    /** Milliseconds in one hour. */
+    static final float ONE_HOUR = 1000f * 60f * 60f;
+
+    /** How many days before today are kept in the index. */
+    static final int DAYS_BEFORE = 1;
+    /** How many days after today are kept in the index. */
+    static final int DAYS_AFTER = 7;
+
+    /**
+     * All the instances that overlap one local day.
+     * These can be decoded directly from an AppointmentCodec array.
+     */
+    static class DaySlice implements AppointmentCodec.Sink {
+        final long dayStart;
+        final long dayEnd;
+        private int mSize = 0;
+        private long[] mIds = new long[8];
+        private long[] mBegins = new long[8];
+        private long[] mEnds = new long[8];
+        private int[] mColors = new int[8];
+        private boolean[] mAllDay = new boolean[8];
+
+        /**
+         * Create an empty slice for one day.
+         *
+         * @param dayStart epoch millis of local midnight at the start of the day.
+         * @param dayEnd epoch millis of local midnight at the end of the day.
+         */
+        DaySlice(long dayStart, long dayEnd) {
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+        }
+
+        /**
+         * Adds one appointment instance to this day.
+         *
+         * @param id unique id of this instance (CalendarContract.Instances._ID).
+         * @param begin start time in epoch millis (UTC midnight for all-day events).
+         * @param end end time in epoch millis (UTC midnight for all-day events).
+         * @param allDay true for all-day events.
+         * @param color the calendar color.
+         */
+        @Override
+        public void add(long id, long begin, long end, boolean allDay, int color) {
+            if (mSize == mIds.length) {
+                int len = mSize * 2;
+                mIds = Arrays.copyOf(mIds, len);
+                mBegins = Arrays.copyOf(mBegins, len);
+                mEnds = Arrays.copyOf(mEnds, len);
+                mColors = Arrays.copyOf(mColors, len);
+                mAllDay = Arrays.copyOf(mAllDay, len);
+            }
+            mIds[mSize] = id;
+            mBegins[mSize] = begin;
+            mEnds[mSize] = end;
+            mColors[mSize] = color;
+            mAllDay[mSize] = allDay;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
+    private final TreeMap<Long, DaySlice> mDays = new TreeMap<>();
+
+    /** Start of the local day that contains the given time. */
+    static long startOfDay(long time, Calendar cal) {
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /** Start of the local day that is the given number of days after dayStart. */
+    static long addDays(long dayStart, int days, Calendar cal) {
+        cal.setTimeInMillis(dayStart);
+        cal.add(Calendar.DAY_OF_YEAR, days);
+        return startOfDay(cal.getTimeInMillis(), cal);
+    }
+
+    /** True if the given day has already been queried. */
+    boolean hasDay(long dayStart) {
+        return mDays.containsKey(dayStart);
+    }
+
+    /** Adds (or replaces) the instances for one day. */
+    void putDay(DaySlice slice) {
+        mDays.put(slice.dayStart, slice);
+    }
+
+    /**
+     * Adds (or replaces) the days in [from, to), from instances in an AppointmentCodec array.
+     * Each instance is added to every day that it overlaps, just as if each day had been
+     * queried separately.  Nothing is changed if the data cannot be decoded.
+     *
+     * @param from start of the first day.
+     * @param to start of the day after the last day.
+     * @param data the instances.
+     * @param cal a calendar in the local timezone.
+     * @throws IOException if the data is not a valid AppointmentCodec array.
+     */
+    void putDays(long from, long to, byte[] data, Calendar cal) throws IOException {
+        final List<DaySlice> slices = new ArrayList<>();
+        for (long day = startOfDay(from, cal); day < to; day = addDays(day, 1, cal)) {
+            slices.add(new DaySlice(day, addDays(day, 1, cal)));
+        }
+        final TimeZone zone = cal.getTimeZone();
+        AppointmentCodec.decode(data, new AppointmentCodec.Sink() {
+            @Override
+            public void add(long id, long begin, long end, boolean allDay, int color) {
+                // all-day events are in UTC, so they belong to the local days of those dates.
+                long localBegin = allDay ? begin - zone.getOffset(begin) : begin;
+                long localEnd = allDay ? end - zone.getOffset(end) : end;
+                for (DaySlice slice : slices) {
+                    if (localBegin < slice.dayEnd
+                            && (localEnd > slice.dayStart || localBegin >= slice.dayStart)) {
+                        slice.add(id, begin, end, allDay, color);
+                    }
+                }
+            }
+        });
+        for (DaySlice slice : slices) {
+            putDay(slice);
+        }
+    }
+
+    /** Number of days currently stored. */
+    int dayCount() {
+        return mDays.size();
+    }
+
+    /**
+     * Evicts all days outside the rolling window [first, last).
+     *
+     * @param first start of the first day to keep.
+     * @param last start of the first day after the window.
+     */
+    void retainDays(long first, long last) {
+        Iterator<Long> iter = mDays.keySet().iterator();
+        while (iter.hasNext()) {
+            long day = iter.next();
+            if (day < first || day >= last) {
+                iter.remove();
+            }
+        }
+    }
+
+    /** Forgets all stored days (e.g. because the calendar or the timezone has changed). */
+    void clear() {
+        mDays.clear();
+    }
+
+    /**
+     * Gets the appointments that overlap a given time range, clipped to that range.
+     *
+     * All the days that overlap the range must have been added first.
+     * Instances that appear in several days (because they cross midnight) are returned once.
+     * All-day events are stored in UTC, so they are moved to local midnights first.
+     *
+     * @param from start of the range (epoch millis).
+     * @param to end of the range (epoch millis).
+     * @param origin the returned hours are relative to this time (usually local midnight).
+     * @param zone the local timezone.
+     * @return the appointments.
+     */
+    Appointments view(long from, long to, long origin, TimeZone zone) {
+        Appointments.Builder appts = new Appointments.Builder();
+        Set<Long> seen = new HashSet<>();
+        Long first = mDays.floorKey(from);  // the day that contains 'from'
+        for (DaySlice slice : mDays.subMap(first == null ? from : first, true, to, false).values()) {
+            for (int i = 0; i < slice.mSize; i++) {
+                long begin = slice.mBegins[i];
+                long end = slice.mEnds[i];
+                boolean allDay = slice.mAllDay[i];
+                if (allDay) {
+                    begin -= zone.getOffset(begin);
+                    end -= zone.getOffset(end);
+                }
+                if (end <= from || begin >= to || !seen.add(slice.mIds[i])) {
+                    continue;
+                }
+                float startHour = (Math.max(begin, from) - origin) / ONE_HOUR;
+                float endHour = (Math.min(end, to) - origin) / ONE_HOUR;
+                appts.add(startHour, endHour, allDay, slice.mColors[i]);
+            }
+        }
+        return appts.build();
+    }
+}
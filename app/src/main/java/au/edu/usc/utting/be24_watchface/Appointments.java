@@ -1,21 +1,16 @@
 package au.edu.usc.utting.be24_watchface;
 
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
+import java.util.Arrays;
+import java.util.BitSet;
 
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.List;
-
-import static au.edu.usc.utting.be24_watchface.Be24WatchFace.angle;
-import static au.edu.usc.utting.be24_watchface.Be24WatchFace.sweep;
+import static au.edu.usc.utting.be24_watchface.Dial.angle;
+import static au.edu.usc.utting.be24_watchface.Dial.sweep;
 
 /**
  * Holds basic information about instances of calendar appointments for the current day.
  *
- * This is used to draw the times of the appointments (not the details), on the watchface.
+ * This is used to draw the times of the appointments (not the details), on the watchface
+ * (see AppointmentsPainter).
  *
  * @author Mark Utting
  */
@@ -23,29 +18,36 @@ public class Appointments {
     /** The start time and length (in hours) of 'all day' appointments. */
     private static final float ALL_DAY_START = 7.0f;
     private static final float ALL_DAY_LENGTH = 10.0f;
+    /** The color of 'all day' appointments (Color.DKGRAY). */
+    static final int ALL_DAY_COLOR = 0xFF444444;
 
-    private final List<Appointment> mAppts;
-    private final Paint mPaint;
-
-
-    /** Basic information for today's appointments. */
-    protected static class Appointment implements Serializable {
-        private float startHour;  // e.g. 13.5f for 1:30pm.
-        private float endHour;
-        private boolean allDay;
-        private int color;  // shows which calendar it is from
-
+    /**
+     * If there are more than this many (timed) appointments, they are drawn in
+     * 'level of detail' mode.  That is, they are rasterized into a ring of minutes,
+     * and then each run of minutes with the same color is drawn as a single arc.
+     * This merges overlapping appointments from the same calendar, and duplicate
+     * instances that appear in several calendars, so busy calendars are not slower to draw.
+     */
+    static final int LOD_THRESHOLD = 20;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /** Marks an empty minute in the occupancy ring. */
+    private static final int NO_COLOR = 0;
 
-        public Appointment(float startHour, float endHour, boolean allDay, int color) {
-            this.startHour = startHour;
-            this.endHour = endHour;
-            this.allDay = allDay;
-            this.color = adjustColor(color);
-        }
+    /*
+     * The appointments are stored as parallel arrays, sorted into drawing order
+     * (all-day appointments first, so they are underneath the others).
+     * The angles and colors are calculated once, when the appointments are built,
+     * so drawing them is just a tight loop with no allocation.
+     */
+    private final int mSize;
+    private final float[] mStartAngles;
+    private final float[] mSweeps;
+    private final int[] mColors;
+    private final BitSet mAllDay;
 
-        /** Adjusts color to look more compatible with the watchface color scheme. */
-        private int adjustColor(int color) {
-            // display the calendar colour, but overlaid on background colour so it is not too jarring.
+    /** Adjusts color to look more compatible with the watchface color scheme. */
+    private static int adjustColor(int color) {
+        // display the calendar colour, but overlaid on background colour so it is not too jarring.
 //        int r = Color.red(color);
 //        int g = Color.green(color);
 //        int b = Color.blue(color);
@@ -59,49 +61,212 @@ public class Appointments {
 //        return Color.HSVToColor(hsv);
 
 //            return Be24WatchFace.BLUE72;  // same color for all calendars
-            return color;
+        return color;
+    }
+
+    /**
+     * Collects appointments, in any order, then builds an immutable Appointments object.
+     */
+    static class Builder {
+        private int mSize = 0;
+        private float[] mStartHours = new float[8];
+        private float[] mEndHours = new float[8];
+        private int[] mColors = new int[8];
+        private final BitSet mAllDay = new BitSet();
+
+        /**
+         * Adds one appointment.
+         *
+         * @param startHour start time in hours, e.g. 13.5f for 1:30pm.
+         * @param endHour end time in hours.
+         * @param allDay true for all-day appointments (these are drawn at a default time).
+         * @param color the calendar color.
+         * @return this builder.
+         */
+        Builder add(float startHour, float endHour, boolean allDay, int color) {
+            if (mSize == mStartHours.length) {
+                mStartHours = Arrays.copyOf(mStartHours, mSize * 2);
+                mEndHours = Arrays.copyOf(mEndHours, mSize * 2);
+                mColors = Arrays.copyOf(mColors, mSize * 2);
+            }
+            mStartHours[mSize] = startHour;
+            mEndHours[mSize] = endHour;
+            mColors[mSize] = color;
+            mAllDay.set(mSize, allDay);
+            mSize++;
+            return this;
+        }
+
+        /** Number of appointments added so far. */
+        int size() {
+            return mSize;
+        }
+
+        Appointments build() {
+            return new Appointments(this);
+        }
+
+        /**
+         * Rasterizes the timed appointments into one color per minute of the day.
+         * Later appointments are painted over earlier ones, just as when they are drawn.
+         */
+        private int[] occupancy() {
+            int[] ring = new int[MINUTES_PER_DAY];
+            for (int i = 0; i < mSize; i++) {
+                if (!mAllDay.get(i)) {
+                    int start = Math.round(mStartHours[i] * 60f);
+                    int end = Math.round(mEndHours[i] * 60f);
+                    int color = adjustColor(mColors[i]);
+                    for (int m = start; m < end; m++) {
+                        ring[((m % MINUTES_PER_DAY) + MINUTES_PER_DAY) % MINUTES_PER_DAY] = color;
+                    }
+                }
+            }
+            return ring;
+        }
+    }
+
+    /**
+     * Finds each run of consecutive minutes with the same color in the occupancy ring,
+     * and optionally stores it as an arc.  Runs may wrap around midnight.
+     *
+     * @param ring the occupancy ring.
+     * @param dest if non-null, the arcs are stored into this object's arrays.
+     * @param pos the array index for the first arc.
+     * @return the number of arcs.
+     */
+    private static int storeRuns(int[] ring, Appointments dest, int pos) {
+        // start scanning at a color change, so that no run is split at midnight.
+        int first = -1;
+        for (int m = 0; m < MINUTES_PER_DAY && first < 0; m++) {
+            if (ring[m] != ring[(m + MINUTES_PER_DAY - 1) % MINUTES_PER_DAY]) {
+                first = m;
+            }
+        }
+        if (first < 0) {
+            // the whole day is the same color.
+            if (ring[0] == NO_COLOR) {
+                return 0;
+            }
+            if (dest != null) {
+                dest.storeArc(pos, 0, MINUTES_PER_DAY, ring[0]);
+            }
+            return 1;
+        }
+        int count = 0;
+        int runStart = first;
+        for (int i = 1; i <= MINUTES_PER_DAY; i++) {
+            int m = (first + i) % MINUTES_PER_DAY;
+            if (i == MINUTES_PER_DAY || ring[m] != ring[runStart]) {
+                if (ring[runStart] != NO_COLOR) {
+                    if (dest != null) {
+                        int length = (m - runStart + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+                        dest.storeArc(pos + count, runStart, length == 0 ? MINUTES_PER_DAY : length,
+                                ring[runStart]);
+                    }
+                    count++;
+                }
+                runStart = m;
+            }
         }
+        return count;
     }
 
-    public Appointments(List<Appointment> appts) {
-        mPaint = new Paint();
-        mPaint.setStyle(Paint.Style.STROKE);
-        mPaint.setStrokeCap(Paint.Cap.BUTT);
-        mAppts = appts;
+    private void storeArc(int pos, int startMinute, int minutes, int color) {
+        mStartAngles[pos] = angle(startMinute / 60f);
+        mSweeps[pos] = minutes * 360f / MINUTES_PER_DAY;
+        mColors[pos] = color;
     }
 
     /**
-     * Draw all the appointments around the edge of the watchface.
+     * Recreates appointments from their arcs (e.g. as saved by FaceSnapshotStore).
      *
-     * @param canvas
-     * @param ambient if true, appointments are drawn as gray curves, else color.
+     * @param startAngles start angle of each arc, in drawing order.
+     * @param sweeps sweep angle of each arc.
+     * @param colors color of each arc.
+     * @param allDay which arcs are all-day appointments.
+     * @return the appointments (these arrays are kept).
      */
-    public void drawAppointments(Canvas canvas, boolean ambient) {
-        float penWidth = 10;
-        mPaint.setAntiAlias(!ambient);
-        mPaint.setStrokeWidth(penWidth);
-        float left = penWidth / 2f;
-        float top = penWidth / 2f;
-        float width = canvas.getWidth() - penWidth / 2f;
-        float height = canvas.getHeight() - penWidth / 2f;
-        for (Appointment ap : mAppts) {
-            float start;
-            float sweep;
-            if (ap.allDay) {
+    static Appointments fromArcs(float[] startAngles, float[] sweeps, int[] colors, BitSet allDay) {
+        return new Appointments(startAngles, sweeps, colors, allDay);
+    }
+
+    private Appointments(float[] startAngles, float[] sweeps, int[] colors, BitSet allDay) {
+        mSize = startAngles.length;
+        mStartAngles = startAngles;
+        mSweeps = sweeps;
+        mColors = colors;
+        mAllDay = allDay;
+    }
+
+    private Appointments(Builder builder) {
+        // all-day appointments go first, so they are drawn underneath the others.
+        int allDayCount = builder.mAllDay.cardinality();
+        int timedCount = builder.mSize - allDayCount;
+        int[] ring = null;
+        if (timedCount > LOD_THRESHOLD) {
+            ring = builder.occupancy();
+            timedCount = storeRuns(ring, null, 0);
+        }
+        mSize = allDayCount + timedCount;
+        mStartAngles = new float[mSize];
+        mSweeps = new float[mSize];
+        mColors = new int[mSize];
+        mAllDay = new BitSet(mSize);
+        mAllDay.set(0, allDayCount);
+        int nextAllDay = 0;
+        int nextTimed = allDayCount;
+        for (int i = 0; i < builder.mSize; i++) {
+            if (builder.mAllDay.get(i)) {
                 // we default to the working day
-                start = angle(ALL_DAY_START);
-                sweep = ALL_DAY_LENGTH * 360f / 24f;
-                mPaint.setColor(Color.DKGRAY);
-            } else {
-                start = angle(ap.startHour);
-                sweep = sweep(ap.startHour, ap.endHour);
-                if (ambient) {
-                    mPaint.setColor(Color.GRAY);
-                } else {
-                    mPaint.setColor(ap.color);
-                }
+                int pos = nextAllDay++;
+                mStartAngles[pos] = angle(ALL_DAY_START);
+                mSweeps[pos] = ALL_DAY_LENGTH * 360f / 24f;
+                mColors[pos] = ALL_DAY_COLOR;
+            } else if (ring == null) {
+                int pos = nextTimed++;
+                mStartAngles[pos] = angle(builder.mStartHours[i]);
+                mSweeps[pos] = sweep(builder.mStartHours[i], builder.mEndHours[i]);
+                mColors[pos] = adjustColor(builder.mColors[i]);
             }
-            canvas.drawArc(left, top, width, height, start, sweep, false, mPaint);
         }
+        if (ring != null) {
+            storeRuns(ring, this, allDayCount);
+        }
+    }
+
+    /** Number of appointments. */
+    int size() {
+        return mSize;
+    }
+
+    /** Start angle of the i'th appointment, in drawing order. */
+    float startAngle(int i) {
+        return mStartAngles[i];
+    }
+
+    /** Sweep angle of the i'th appointment, in drawing order. */
+    float sweepAngle(int i) {
+        return mSweeps[i];
+    }
+
+    /** Start time of the i'th appointment (in drawing order), in hours 0..24. */
+    float startHour(int i) {
+        return ((mStartAngles[i] + 270f) % 360f) / 15f;
+    }
+
+    /** End time of the i'th appointment (in drawing order), in hours (may be past 24). */
+    float endHour(int i) {
+        return startHour(i) + mSweeps[i] / 15f;
+    }
+
+    /** Color of the i'th appointment, in drawing order. */
+    int color(int i) {
+        return mColors[i];
+    }
+
+    /** True if the i'th appointment (in drawing order) is an all-day appointment. */
+    boolean isAllDay(int i) {
+        return mAllDay.get(i);
     }
 }
@@ -0,0 +1,43 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Draws the appointment arcs around the edge of the watchface.
+ */
+class AppointmentsPainter {
+    private static final float PEN_WIDTH = 10f;
+
+    private final Paint mPaint = new Paint();
+
+    AppointmentsPainter() {
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.BUTT);
+        mPaint.setStrokeWidth(PEN_WIDTH);
+    }
+
+    /**
+     * Draw all the appointments around the edge of the watchface.
+     *
+     * @param canvas
+     * @param appts the appointments, in drawing order.
+     * @param ambient if true, appointments are drawn as gray curves, else color.
+     */
+    void draw(Canvas canvas, Appointments appts, boolean ambient) {
+        mPaint.setAntiAlias(!ambient);
+        float left = PEN_WIDTH / 2f;
+        float top = PEN_WIDTH / 2f;
+        float width = canvas.getWidth() - PEN_WIDTH / 2f;
+        float height = canvas.getHeight() - PEN_WIDTH / 2f;
+        for (int i = 0; i < appts.size(); i++) {
+            if (ambient && !appts.isAllDay(i)) {
+                mPaint.setColor(Color.GRAY);
+            } else {
+                mPaint.setColor(appts.color(i));
+            }
+            canvas.drawArc(left, top, width, height, appts.startAngle(i), appts.sweepAngle(i), false, mPaint);
+        }
+    }
+}
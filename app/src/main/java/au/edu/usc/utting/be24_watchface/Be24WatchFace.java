@@ -1,14 +1,9 @@
 package au.edu.usc.utting.be24_watchface;
 
-import android.Manifest;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -17,31 +12,23 @@ import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.location.Location;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.provider.CalendarContract;
-import android.support.v4.content.ContextCompat;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.graphics.Palette;
-import android.support.wearable.provider.WearableCalendarContract;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.tasks.OnSuccessListener;
-
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.List;
-import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
+import java.time.ZoneId;
 
 
 /**
@@ -112,32 +99,29 @@ public class Be24WatchFace extends CanvasWatchFaceService {
     static final int HOURS = 8; // the hour numbers
     static final int APPTS = 9; // default paint for the appointments (color may vary)
 
-    /*
-     * Update rate in milliseconds for interactive mode.
-     * We update once a minute, which is plenty for a 24-hour watch,
-     * since the tip of the hand moves only about 1 pixel/minute on a 400x400 screen.
-     */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(60);
+    // These names are used to index the cached layers of the watchface, from bottom to top.
+    static final int LAYER_BACKGROUND = 0; // background color or image
+    static final int LAYER_SUN = 1;        // the sunrise-sunset pie
+    static final int LAYER_FACE = 2;       // tick marks, hour numbers and logo
+    static final int LAYER_APPTS = 3;      // appointment arcs around the edge
 
     private static final String TAG = Be24WatchFace.class.getSimpleName();
 
+    /** Default location, used until we get the real location. */
+    private static final double DEFAULT_LATITUDE = -26.84;
+    private static final double DEFAULT_LONGITUDE = 152.96;
+    /** Location fixes closer than this to the last used position are ignored (about 0.5 minutes of sun). */
+    static final float MIN_LOCATION_DISTANCE_M = 10000f;
 
-    private static final String[] INSTANCE_PROJECTION = {
-            CalendarContract.Instances._ID,
-            CalendarContract.Instances.EVENT_ID,
-            CalendarContract.Instances.TITLE,
-            CalendarContract.Instances.BEGIN,
-            CalendarContract.Instances.END,
-            CalendarContract.Instances.ALL_DAY,
-            CalendarContract.Instances.DESCRIPTION,
-            CalendarContract.Instances.CALENDAR_COLOR, // or use EVENT_COLOR?
-    };
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /** The number of hour hand styles (see setHourHandStyle). */
+    static final int HAND_STYLES = 3;
+
     /**
      * Converts a given number of hours (0..24) into the corresponding angle.
      * Note: 00 hours is at the bottom (South).
@@ -147,7 +131,7 @@ public class Be24WatchFace extends CanvasWatchFaceService {
      * @return angle in degrees (always in the range 0..360.0)
      */
     public static float angle(float time24) {
-        return (time24 * 360f / 24f + 90.0f) % 360f;
+        return Dial.angle(time24);
     }
 
     /**
@@ -158,12 +142,41 @@ public class Be24WatchFace extends CanvasWatchFaceService {
      * @return sweep angle in degrees clockwise (always in the range 0..360.0)
      */
     public static float sweep(float start24, float end24) {
-        return ((24.0f + end24 - start24) * (360f / 24f)) % 360f;
+        return Dial.sweep(start24, end24);
     }
 
+    /**
+     * Mixes two opaque colors.
+     *
+     * @param from the color when fraction is 0.
+     * @param to the color when fraction is 1.
+     * @param fraction 0..1.
+     * @return the mixed color.
+     */
+    static int blend(int from, int to, float fraction) {
+        return Color.rgb(
+                Math.round(Color.red(from) + (Color.red(to) - Color.red(from)) * fraction),
+                Math.round(Color.green(from) + (Color.green(to) - Color.green(from)) * fraction),
+                Math.round(Color.blue(from) + (Color.blue(to) - Color.blue(from)) * fraction));
+    }
+
+    /** The most recent engine, for dump(...). */
+    private Engine mEngine;
+
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
+    }
+
+    /** Prints the frame timings, for 'adb shell dumpsys activity service Be24WatchFace'. */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        Engine engine = mEngine;
+        if (engine != null) {
+            engine.mProfiler.dump(writer);
+        }
     }
 
     private static class EngineHandler extends Handler {
@@ -186,49 +199,47 @@ public class Be24WatchFace extends CanvasWatchFaceService {
         }
     }
 
-//    public class CalendarReceiver extends ResultReceiver {
-//        public static final String APPOINTMENTS_LIST = "result";
-//
-//        CalendarReceiver(Handler handler) {
-//            super(handler);
-//        }
-//
-//        //...
-//        @Override
-//        protected void onReceiveResult(int resultCode, Bundle resultData) {
-//
-//            if(resultCode == 0){
-//                List<Appointments.Appointment> appts = (List<Appointments.Appointment>) resultData.getSerializable(APPOINTMENTS_LIST);
-//                Log.e(TAG, "GOT Appointments: " + appts.size());
-//                mAppointments = new Appointments(appts);
-//            } else {
-//                Log.e(TAG, "BAD RESULT FROM CalendarQueryService");
-//                // TODO: mReceiver.onError((Exception) resultData.getSerializable(PARAM_EXCEPTION));
-//            }
-//        }
-//    }
-
-    private class Engine extends CanvasWatchFaceService.Engine {
-
-        /* Handler to update the time once a second in interactive mode. */
-        // TODO: delete this, since once/minute is plenty?
+    class Engine extends CanvasWatchFaceService.Engine {
+
+        /* Handler to update the time in interactive mode (see UpdateScheduler). */
         private final Handler mUpdateTimeHandler = new EngineHandler(this);
-        private Calendar mCalendar;
+        /** Decides when the next interactive update is needed. */
+        private final UpdateScheduler mScheduler = new UpdateScheduler();
+        /** The snapshot that the current timer was scheduled for. */
+        private FaceState mScheduledState;
+        /** Converts the current time into local hours, for each frame. */
+        private final TimeBase mTimeBase = new TimeBase(ZoneId.systemDefault());
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                updateAppointments(); // since timezone changes will move appointments.
+                mTimeBase.setZone(ZoneId.systemDefault());
+                // since timezone changes will move appointments and sunrise/set.
+                updateDay(true);
                 invalidate();
             }
         };
         private boolean mRegisteredTimeZoneReceiver = false;
+        /** Receives the results of each CalendarQueryService sync. */
+        private final BroadcastReceiver mAppointmentsReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                byte[] data = intent.getByteArrayExtra(CalendarQueryService.APPOINTMENTS);
+                if (data != null) {
+                    mWorker.putAppointments(data,
+                            intent.getLongExtra(CalendarQueryService.BEGIN, 0L),
+                            intent.getLongExtra(CalendarQueryService.END, 0L));
+                }
+            }
+        };
         private boolean mMuteMode;
         private float mCenterX;
         private float mCenterY;
-        private float mLogoOffset;
-        private float mMajorTickLength;  // length of major ticks around edge
-        private float mMinorTickLength;  // length of minor ticks around edge
+        /** Positions of the ticks, numbers and logo (recalculated when the size changes). */
+        private FaceLayout mLayout;
+        /** Pre-rendered hour numbers and logo, for each mode (ambient and/or mute). */
+        private final GlyphAtlas[] mGlyphs = new GlyphAtlas[4];
+        /** Index of the logo in each GlyphAtlas. */
+        private int mLogoGlyph;
 
         private HourHand mHourHand;
         private float mHandLength;
@@ -244,6 +255,8 @@ public class Be24WatchFace extends CanvasWatchFaceService {
         private Paint[] mPaint = null;
         private Paint[] mPaintNormal = new Paint[APPTS + 1];
         private Paint[] mPaintAmbient = new Paint[APPTS + 1];
+        /** Night-time bands, from sunset..sunrise (lightest) to astronomical night (darkest). */
+        private Paint[] mTwilightPaint = new Paint[FaceState.BANDS];
 
         private Bitmap mBackgroundBitmap;
         private Bitmap mGrayBackgroundBitmap;
@@ -251,85 +264,80 @@ public class Be24WatchFace extends CanvasWatchFaceService {
         private boolean mLowBitAmbient;
         private boolean mBurnInProtection;
 
-        /** Angle in degrees (0=east) where sunset happens. */
-        private float mSunsetAngle;
-        /** Sweep angle of night duration. */
-        private float mNightAngle;
-
-        private Appointments mAppointments = null;
-        /** the hour (0..23) that appointments were last updated. */
-        private int mUpdateHour = -1;
-
-        private double latitude = -26.84;
-        private double longitude = 152.96;
-        private String locMsg = "default";
-        private FusedLocationProviderClient mFusedLocationClient;
+        /**
+         * Incremental redraws only repaint the area that the hand has moved across.
+         * mFullRedraw is set whenever anything else may have changed, and means
+         * the next update must repaint the whole screen (via onDraw).
+         */
+        private boolean mFullRedraw = true;
+        /** Screen area covered by the hand when it was last drawn. */
+        private final Rect mLastHandBounds = new Rect();
+        private final Rect mHandBounds = new Rect();
+        private final Rect mDirty = new Rect();
+        /** Profiler times of the incremental frame in progress. */
+        private long mIncrementalStart;
+        private long mIncrementalTime;
+
+        /** Does all calendar, location and sun calculations in the background. */
+        private FaceDataWorker mWorker;
+        /** The data snapshot for the frame currently being drawn. */
+        private FaceState mState;
+
+        /** the local day (see TimeBase.epochDay) that appointments and sunrise/set were last updated. */
+        private long mUpdateDay = -1;
+
+        /** Offscreen cache of everything except the hour hand. */
+        private LayerCompositor mLayers;
+        /** Pre-baked face for ambient mode. */
+        private AmbientRenderer mAmbientRenderer;
+        /** Draws the appointment arcs around the edge. */
+        private final AppointmentsPainter mAppointmentsPainter = new AppointmentsPainter();
+        /** Timings of each phase of drawing (see dump). */
+        private final FrameProfiler mProfiler = new FrameProfiler();
+        /** The time (in hours) of the frame currently being drawn. */
+        private float mHours;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
 
-            /* get location.
-             * See https://developer.android.com/training/location/retrieve-current
-             */
-            mFusedLocationClient = LocationServices.getFusedLocationProviderClient(getApplicationContext());
-
-            // We ask for last location just once, when watch face starts.
-            // TODO: repeat it each week or so.
-            OnSuccessListener listen = new OnSuccessListener<Location>() {
-                @Override
-                public void onSuccess(Location location) {
-                    // Got last known location. In some rare situations this can be null.
-                    if (location != null) {
-                        // Logic to handle location object
-                        latitude = location.getLatitude();
-                        longitude = location.getLongitude();
-                        locMsg = String.format("%.4f,%.4f", latitude, longitude);
-                        Log.d(TAG, "got lat,long=" + locMsg);
-
-                        // update sunrise/set calculations
-                        long now = System.currentTimeMillis();
-                        mCalendar.setTimeInMillis(now);
-                        SunCalculator sun = new SunCalculator();
-                        sun.calculateSunRiseSet(latitude, longitude, mCalendar);
-                        float sunriseHour = sun.getSunrise();
-                        float sunsetHour = sun.getSunset();
-                        mSunsetAngle = angle(sunsetHour);
-                        mNightAngle = sweep(sunsetHour, sunriseHour);
-                        Log.d(TAG, String.format("new lat,long=%.4f,%.4f" +
-                                        " sunrise/set=%.2f..%.2f (night=%.1f+=%.1f deg)",
-                                latitude, longitude,
-                                sunriseHour, sunsetHour, mSunsetAngle, mNightAngle));
-                    }
-                }
-            };
-            try {
-                mFusedLocationClient.getLastLocation().addOnSuccessListener(listen);
-            } catch (SecurityException ex) {
-                Log.d(TAG, "onCreate() location permissions denied.");
-            }
-
             setWatchFaceStyle(new WatchFaceStyle.Builder(Be24WatchFace.this)
                     .setAcceptsTapEvents(true)
                     .build());
 
-            mCalendar = Calendar.getInstance();
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            SunCalculator sun = new SunCalculator();
-            sun.calculateSunRiseSet(latitude, longitude, mCalendar);
-            float sunriseHour = sun.getSunrise();
-            float sunsetHour = sun.getSunset();
-            mSunsetAngle = angle(sunsetHour);
-            mNightAngle = sweep(sunsetHour, sunriseHour);
-            Log.d(TAG, String.format("onCreate() lat,long=%.4f,%.4f" +
-                    " sunrise/set=%.2f..%.2f (night=%.1f+=%.1f deg)",
-                    latitude, longitude,
-                    sunriseHour, sunsetHour, mSunsetAngle, mNightAngle));
+            // the worker starts from the snapshot saved by the previous engine, if there is one.
+            mWorker = new FaceDataWorker(getApplicationContext(),
+                    new FaceSnapshotStore(getApplicationContext().getFilesDir()),
+                    DEFAULT_LATITUDE, DEFAULT_LONGITUDE, MIN_LOCATION_DISTANCE_M,
+                    new FaceDataWorker.Listener() {
+                        @Override
+                        public void onFaceStateChanged(FaceState state) {
+                            postInvalidate();
+                        }
+                    });
+            mState = mWorker.getState();
+            // We ask for the last location when the watch face starts,
+            // then follow the user (rarely, and with low power) in case they travel.
+            mWorker.requestLocation();
+            mWorker.startLocationUpdates();
+            // the calendar is synced in the background, even when the face is not visible,
+            // and that sync follows calendar changes, so the worker only watches if it cannot.
+            LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(
+                    mAppointmentsReceiver, new IntentFilter(CalendarQueryService.ACTION_APPOINTMENTS));
+            if (!CalendarQueryService.schedule(getApplicationContext(),
+                    CalendarQueryService.DEFAULT_LOOK_AHEAD_DAYS)) {
+                mWorker.startObservingCalendar();
+            }
+
             initializeBackground();
             initializeColors();
             initializeWatchFace();
-            updateAppointments();
+            initializeLayers();
+            mHourHandStyle = mWorker.getSavedHandStyle();
+            if (mHourHandStyle != 0) {
+                setHourHandStyle(mHourHandStyle);
+            }
+            updateDay(false);
         }
 
         private void initializeColors() {
@@ -350,6 +358,12 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             mPaintNormal[HOURS].setColor(AMBER72);
             mPaintNormal[APPTS].setColor(BLUE65);  // just a default
 
+            // each deeper twilight band is a bit closer to black than the normal night color.
+            for (int b = 0; b < mTwilightPaint.length; b++) {
+                mTwilightPaint[b] = new Paint(mPaintNormal[BGND2]);
+                mTwilightPaint[b].setColor(blend(BLUE20, Color.BLACK, b / (float) mTwilightPaint.length));
+            }
+
             // Customise some paints/fonts.
             // these paints are used for drawing lines (the others default to FILL)
             mPaintNormal[BGND3].setStyle(Paint.Style.STROKE);
@@ -418,12 +432,66 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             mHourHand = new HourHand(mPaintNormal, mPaintAmbient);
             // just in case the size is already known...
             mHourHand.setGeometry(mCenterX, mCenterY, mHandLength);
-            mLogoOffset = mPaint[LOGO1].measureText(LOGO) / 2f;
+            mLayout = new FaceLayout((int) (mCenterX * 2f), (int) (mCenterY * 2f),
+                    mPaintNormal[HOURS], mPaintNormal[LOGO1]);
+        }
+
+        /**
+         * Sets up the cached layers of the watchface.
+         * Each layer is re-rendered only when its invalidation key changes (see onDraw).
+         */
+        private void initializeLayers() {
+            mLayers = new LayerCompositor(
+                    new LayerCompositor.Layer() {
+                        @Override
+                        public void drawLayer(Canvas canvas) {
+                            long t = mProfiler.start();
+                            drawBackground(canvas);
+                            mProfiler.record(FrameProfiler.BACKGROUND, t);
+                        }
+                    },
+                    new LayerCompositor.Layer() {
+                        @Override
+                        public void drawLayer(Canvas canvas) {
+                            long t = mProfiler.start();
+                            drawSunPie(canvas);
+                            mProfiler.record(FrameProfiler.SUN, t);
+                        }
+                    },
+                    new LayerCompositor.Layer() {
+                        @Override
+                        public void drawLayer(Canvas canvas) {
+                            long t = mProfiler.start();
+                            drawWatchFace(canvas, mHours);
+                            mProfiler.record(FrameProfiler.FACE, t);
+                        }
+                    },
+                    new LayerCompositor.Layer() {
+                        @Override
+                        public void drawLayer(Canvas canvas) {
+                            long t = mProfiler.start();
+                            if (mState.appointments != null) {
+                                mAppointmentsPainter.draw(canvas, mState.appointments, mAmbient);
+                            }
+                            mProfiler.record(FrameProfiler.APPOINTMENTS, t);
+                        }
+                    });
+            mAmbientRenderer = new AmbientRenderer(new AmbientRenderer.Painter() {
+                @Override
+                public void drawAmbientFace(Canvas canvas) {
+                    drawBackground(canvas);
+                    drawWatchFace(canvas, mHours);
+                    if (mState.appointments != null) {
+                        mAppointmentsPainter.draw(canvas, mState.appointments, true);
+                    }
+                }
+            });
         }
 
         /** Set the hour hand implementation that we want. */
         public void setHourHand(HourHand hand) {
             mHourHand = hand;
+            mFullRedraw = true;
             hand.setGeometry(mCenterX, mCenterY, mHandLength);
         }
 
@@ -432,8 +500,8 @@ public class Be24WatchFace extends CanvasWatchFaceService {
          * @param style any positive integer.
          *              This is mapped modulo onto the number of known styles.
          */
-        private void setHourHandStyle(int style) {
-            switch (style % 3) {
+        void setHourHandStyle(int style) {
+            switch (style % HAND_STYLES) {
                 case 0:
                     setHourHand(new HourHand(mPaintNormal, mPaintAmbient));
                     break;
@@ -448,9 +516,27 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             }
         }
 
+        /** The latest data snapshot (the next frame will show this). */
+        @VisibleForTesting
+        FaceState getFaceState() {
+            return mWorker.getState();
+        }
+
+        /** Shows the given appointments instead of the calendar (for the render tests). */
+        @VisibleForTesting
+        void setAppointments(Appointments appts) {
+            mWorker.setAppointments(appts);
+        }
+
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            LocalBroadcastManager.getInstance(getApplicationContext())
+                    .unregisterReceiver(mAppointmentsReceiver);
+            CalendarQueryService.cancel(getApplicationContext());
+            mWorker.stopObservingCalendar();
+            mWorker.stopLocationUpdates();
+            mWorker.quit();
             super.onDestroy();
         }
 
@@ -461,6 +547,13 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
             Log.d(TAG, "set lowBitAmbient=" + mLowBitAmbient
                     + " burnInProtection=" + mBurnInProtection);
+            mAmbientRenderer.setProperties(mLowBitAmbient, mBurnInProtection);
+            // low-bit screens cannot show anti-aliasing, so re-render the ambient hand without it.
+            mPaintAmbient[HAND1].setAntiAlias(!mLowBitAmbient);
+            updateAmbientAlpha();
+            mHourHand.setGeometry(mCenterX, mCenterY, mHandLength);
+            // the gray background image is not used with either property.
+            mAmbientRenderer.invalidate();
         }
 
         @Override
@@ -473,6 +566,7 @@ public class Be24WatchFace extends CanvasWatchFaceService {
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             mAmbient = inAmbientMode;
+            mFullRedraw = true;
 
             updateWatchStyle();
 
@@ -488,6 +582,14 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             }
         }
 
+        /** Dims the ambient paints in mute mode (except on low-bit screens). */
+        private void updateAmbientAlpha() {
+            int alpha = AmbientRenderer.ambientAlpha(mMuteMode, mLowBitAmbient);
+            for (Paint paint : mPaintAmbient) {
+                paint.setAlpha(alpha);
+            }
+        }
+
         @Override
         public void onInterruptionFilterChanged(int interruptionFilter) {
             super.onInterruptionFilterChanged(interruptionFilter);
@@ -498,9 +600,13 @@ public class Be24WatchFace extends CanvasWatchFaceService {
                 mMuteMode = inMuteMode;
                 Log.d(TAG, "setting muteMode = " + mMuteMode);
                 for (int i = 0; i < mPaintNormal.length; i++) {
-                    mPaintNormal[i].setAlpha(inMuteMode ? 100 : 255);
-                    mPaintAmbient[i].setAlpha(inMuteMode ? 100 : 255);
+                    mPaintNormal[i].setAlpha(inMuteMode ? AmbientRenderer.MUTE_ALPHA : 255);
+                }
+                for (Paint paint : mTwilightPaint) {
+                    paint.setAlpha(inMuteMode ? AmbientRenderer.MUTE_ALPHA : 255);
                 }
+                updateAmbientAlpha();
+                mFullRedraw = true;
                 invalidate();
             }
         }
@@ -518,14 +624,17 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             mCenterY = height / 2f;
 
             /*
-             * Calculate lengths of hands based on watch screen size.
+             * Calculate positions of ticks and lengths of hands based on watch screen size.
              */
-            mMajorTickLength = mCenterX * MAJOR_TICK_LENGTH;
-            mMinorTickLength = mCenterX * MINOR_TICK_LENGTH;
+            mLayout = new FaceLayout(width, height, mPaintNormal[HOURS], mPaintNormal[LOGO1]);
 
             // leave a couple of pixels clearance, to avoid any friction.
             mHandLength = mCenterX - mCenterX * Be24WatchFace.MAJOR_TICK_LENGTH - 2f;
             mHourHand.setGeometry(mCenterX, mCenterY, mHandLength);
+            mScheduler.setHandLength(mHandLength);
+            mLayers.setSize(width, height);
+            mAmbientRenderer.setSize(width, height);
+            mFullRedraw = true;
 
             /* Scale loaded background image (more efficient) if surface dimensions change. */
             if (mBackgroundBitmap != null) {
@@ -549,6 +658,8 @@ public class Be24WatchFace extends CanvasWatchFaceService {
                     initGrayBackgroundBitmap();
                 }
             }
+            mLayers.invalidateAll();
+            mAmbientRenderer.invalidate();
         }
 
         private void initGrayBackgroundBitmap() {
@@ -587,17 +698,18 @@ public class Be24WatchFace extends CanvasWatchFaceService {
                     float ydiff = y - mCenterY;
                     if (xdiff * xdiff + ydiff * ydiff < 20 * 20) {
                         // they tapped the centre, so we change the style of the hour hand.
-                        mHourHandStyle++;
+                        mHourHandStyle = (mHourHandStyle + 1) % HAND_STYLES;
                         setHourHandStyle(mHourHandStyle);
+                        mWorker.setHandStyle(mHourHandStyle);
                     } else if (y < mCenterY) {
-                        // they tapped the top, so we update appointments.
-                        updateAppointments();
-                        // Intent intent = new Intent(getApplicationContext(), CalendarQueryService.class);
-                        // TODO: pass CalendarReceiver listener to intent (or CalendarQueryService instance!)
-                        // intent.putExtra("resultreceiver", new CalendarReceiver(intent));
-                        // startService(intent);
+                        // they tapped the top, so we re-read the appointments.
+                        mWorker.reloadAppointments();
                         // new CalendarViewer().showCalendars(getApplicationContext());
                     } else {
+                        // they tapped the bottom, so we log the frame timings (for debugging).
+                        StringWriter timings = new StringWriter();
+                        mProfiler.dump(new PrintWriter(timings));
+                        Log.i(TAG, timings.toString());
                         // old stuff.
                         new CalendarViewer().showDay(getApplicationContext());
                     }
@@ -607,108 +719,165 @@ public class Be24WatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Updates the appointments by reading the calendar.
-         *
-         * If READ_CALENDAR permissions are not turned on, no appointments are shown.
-         *
-         * TODO: call this automatically, when day or timezone changes?
+         * Asks the worker to update the appointments by reading the calendar.
+         * The new appointments will be shown once the worker has published them.
          *
-         * NOTE: WearableCalendarContract does not sync all data now.
-         * See issue: https://issuetracker.google.com/issues/38476499
+         * Note that this is needed only when the day or timezone changes, or the user asks,
+         * since the worker also re-reads the calendar whenever its contents change.
          */
         private void updateAppointments() {
-            mUpdateHour = mCalendar.get(Calendar.HOUR_OF_DAY);
-            if (ContextCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.READ_CALENDAR)
-                    != PackageManager.PERMISSION_GRANTED) {
-                Log.i(TAG, "No READ_CALENDAR permission.");
-                mAppointments = null;
+            mWorker.requestAppointments();
+        }
+
+        /**
+         * Moves the appointments and sunrise/sunset times on to the current day.
+         *
+         * @param reload true to re-read all the appointments (e.g. after a timezone change),
+         *               rather than just the days that are not yet known.
+         */
+        private void updateDay(boolean reload) {
+            mTimeBase.update(System.currentTimeMillis());
+            mUpdateDay = mTimeBase.epochDay();
+            if (reload) {
+                mWorker.reloadAppointments();
             } else {
-                // String[] perms = {Manifest.permission.READ_CALENDAR};
-                // TODO: ?? ActivityCompat.requestPermissions(this, perms, 0);
-                Calendar cal = Calendar.getInstance();
-                long now = System.currentTimeMillis();
-                cal.setTimeInMillis(now);
-
-                cal.set(Calendar.HOUR_OF_DAY, 0);
-                cal.set(Calendar.MINUTE, 1); // so we do not include all-day events from yesterday?
-                cal.set(Calendar.SECOND, 0);
-                long beginTime = cal.getTimeInMillis();
-
-                String beginStr = cal.getTime().toString();
-
-                cal.set(Calendar.HOUR_OF_DAY, 23);
-                cal.set(Calendar.MINUTE, 59);
-                long endTime = cal.getTimeInMillis();
-
-                String endStr = cal.getTime().toString();
-
-                List<Appointments.Appointment> appts = new ArrayList<>();
-
-                ContentResolver contentResolver = getContentResolver();
-                Uri.Builder builder = WearableCalendarContract.Instances.CONTENT_URI.buildUpon();
-                ContentUris.appendId(builder, beginTime);
-                ContentUris.appendId(builder, endTime);
-                Uri uri = builder.build();
-
-                try (Cursor cursor = contentResolver.query(uri, INSTANCE_PROJECTION,
-                        null, null, null)) {
-                    if (cursor == null) {
-                        mAppointments = null;
-                        return;
-                    }
-                    long then = System.currentTimeMillis();
-
-                    Log.e(TAG, "Query calendar events " + beginStr + ".." + endStr +
-                            " timezone=" + cal.getTimeZone() +
-                            " gives count=" + cursor.getCount() + " in " + (then - now) + "ms.");
-                    int idIdx = cursor.getColumnIndex(CalendarContract.Instances._ID);
-                    int eventIdIdx = cursor.getColumnIndex(CalendarContract.Instances.EVENT_ID);
-                    int titleIdx = cursor.getColumnIndex(CalendarContract.Instances.TITLE);
-                    int beginIdx = cursor.getColumnIndex(CalendarContract.Instances.BEGIN);
-                    int endIdx = cursor.getColumnIndex(CalendarContract.Instances.END);
-                    int allDayIdx = cursor.getColumnIndex(CalendarContract.Instances.ALL_DAY);
-                    int descIdx = cursor.getColumnIndex(CalendarContract.Instances.DESCRIPTION);
-                    int colorIdx = cursor.getColumnIndex(CalendarContract.Instances.CALENDAR_COLOR);
-
-                    float ONE_HOUR = 1000f * 60f * 60f; // milliseconds in one hour
-                    while (cursor.moveToNext()) {
-                        // appt.id = cursor.getLong(idIdx);
-                        // appt.eventId = cursor.getLong(eventIdIdx);
-                        String title = cursor.getString(titleIdx);
-                        float startHour = (cursor.getLong(beginIdx) - beginTime) / ONE_HOUR;
-                        float endHour = (cursor.getLong(endIdx) - beginTime) / ONE_HOUR;
-                        boolean allDay = cursor.getInt(allDayIdx) != 0;
-                        // appt.description = cursor.getString(descIdx);
-                        int color = cursor.getInt(colorIdx);
-                        Log.e(TAG, "  Got event allDay=" + allDay + " " + startHour + " .. " + endHour + ": " + title);
-                        // put all-day appointments at the beginning, so they are underneath the others.
-                        appts.add(allDay ? 0 : appts.size(),
-                                new Appointments.Appointment(startHour, endHour, allDay, color));
-                    }
-                    mAppointments = new Appointments(appts);
-                }
+                updateAppointments();
             }
+            mWorker.requestSun();
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            Log.d(TAG, "onDraw with mAmbient=" + mAmbient);
+            long start = mProfiler.start();
+            prepareFrame();
+            long t = mProfiler.record(FrameProfiler.PREPARE, start);
+            if (mAmbient) {
+                drawAmbient(canvas, t);
+            } else {
+                mLayers.draw(canvas);
+                t = mProfiler.record(FrameProfiler.LAYERS, t);
+                mHourHand.drawHand(canvas, mHours, mPaint, mAmbient);
+                mProfiler.record(FrameProfiler.HAND, t);
+                mHourHand.getHandBounds(mHours, mLastHandBounds);
+            }
+            mFullRedraw = false;
+            mProfiler.record(FrameProfiler.FRAME, start);
+            mProfiler.drawn();
+            if (mState != mScheduledState && shouldTimerBeRunning()) {
+                // new appointments or sun times may need an earlier update.
+                scheduleNextUpdate();
+            }
+        }
+
+        /**
+         * Gets the current time and data snapshot, and updates the layer keys.
+         * This is shared by full and incremental redraws.
+         */
+        private void prepareFrame() {
             long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            final float hours = mCalendar.get(Calendar.HOUR_OF_DAY) + mCalendar.get(Calendar.MINUTE) / 60f;
+            final float hours = mTimeBase.hours(now);
+            mHours = hours;
+            // read the latest snapshot just once, so the whole frame is consistent.
+            mState = mWorker.getState();
+
+            if (mUpdateDay != mTimeBase.epochDay()) {
+                // a new day has started, so this is just a cheap comparison on most frames.
+                updateDay(false);
+            }
 
-            drawBackground(canvas);
-            drawWatchFace(canvas, hours);
+            // Everything except the hand is cached, and only redrawn when its key changes.
+            // The low bit of each key records the mute mode.
+            // Ambient mode has its own cache, so the interactive layers survive it.
+            long mode = mMuteMode ? 1 : 0;
+            long quadrant = FaceLayout.quadrant(hours);
+            if (mAmbient) {
+                mAmbientRenderer.setKey((mState.appointmentsVersion * FaceLayout.QUADRANTS + quadrant) * 2 + mode);
+                return;
+            }
+            mLayers.setKey(LAYER_BACKGROUND, mode);
+            mLayers.setKey(LAYER_SUN, mState.sunKey * 2 + mode);
+            mLayers.setKey(LAYER_FACE, quadrant * 2 + mode);
+            mLayers.setKey(LAYER_APPTS, mState.appointmentsVersion * 2L + mode);
+        }
 
-            mHourHand.drawHand(canvas, hours, mPaint, mAmbient);
+        /**
+         * Draws an ambient frame: just the pre-baked face and the hand,
+         * both shifted together if the screen needs burn-in protection.
+         */
+        private void drawAmbient(Canvas canvas, long t) {
+            mAmbientRenderer.draw(canvas, (int) (mHours * 60f));
+            t = mProfiler.record(FrameProfiler.LAYERS, t);
+            int dx = mAmbientRenderer.getOffsetX();
+            int dy = mAmbientRenderer.getOffsetY();
+            if (dx == 0 && dy == 0) {
+                mHourHand.drawHand(canvas, mHours, mPaint, true);
+            } else {
+                canvas.save();
+                canvas.translate(dx, dy);
+                mHourHand.drawHand(canvas, mHours, mPaint, true);
+                canvas.restore();
+            }
+            mProfiler.record(FrameProfiler.HAND, t);
+        }
 
-            if (mUpdateHour != mCalendar.get(Calendar.HOUR_OF_DAY)) {
-                // once an hour (or when user taps) we try to update appointments.
-                updateAppointments();
+        /**
+         * Redraws just the area that the hand has moved across since the last frame,
+         * from the cached layers.  If anything else has changed (mode, size, data,
+         * or the layers need re-rendering), this falls back to a full redraw.
+         */
+        private void drawIncremental() {
+            if (mFullRedraw || mAmbient || !isVisible() || !prepareIncremental()) {
+                invalidate();
+                return;
+            }
+            SurfaceHolder holder = getSurfaceHolder();
+            Canvas canvas;
+            try {
+                // note that this may enlarge mDirty, but the canvas is clipped to it.
+                canvas = holder.lockCanvas(mDirty);
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                canvas = null;
             }
-            if (mAppointments != null) {
-                mAppointments.drawAppointments(canvas, mAmbient);
+            if (canvas == null) {
+                invalidate();
+                return;
+            }
+            try {
+                drawIncremental(canvas);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+            mLastHandBounds.set(mHandBounds);
+            mProfiler.record(FrameProfiler.FRAME, mIncrementalStart);
+            mProfiler.drawn();
+        }
+
+        /**
+         * Updates the frame data and sets mDirty to the area that the hand has moved across.
+         *
+         * @return false if the layers need re-rendering, so only a full redraw will do.
+         */
+        @VisibleForTesting
+        boolean prepareIncremental() {
+            mIncrementalStart = mProfiler.start();
+            prepareFrame();
+            mIncrementalTime = mProfiler.record(FrameProfiler.PREPARE, mIncrementalStart);
+            if (mLayers.isDirty()) {
+                return false;
             }
+            mHourHand.getHandBounds(mHours, mHandBounds);
+            mDirty.set(mLastHandBounds);
+            mDirty.union(mHandBounds);
+            return true;
+        }
+
+        /** Draws the hand and the layers under it onto a canvas that is clipped to mDirty. */
+        @VisibleForTesting
+        void drawIncremental(Canvas canvas) {
+            mLayers.draw(canvas);
+            long t = mProfiler.record(FrameProfiler.LAYERS, mIncrementalTime);
+            mHourHand.drawHand(canvas, mHours, mPaint, mAmbient);
+            mProfiler.record(FrameProfiler.HAND, t);
         }
 
         private void drawBackground(Canvas canvas) {
@@ -724,115 +893,68 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             } else {
                 canvas.drawPaint(mPaint[BGND1]);
             }
+        }
 
+        private void drawSunPie(Canvas canvas) {
             // the sunrise-sunset pie
             if (!mAmbient) {
                 float width = mCenterX * 2f;
                 float height = mCenterY * 2f;
-                canvas.drawArc(0f, 0f, width, height, mSunsetAngle, mNightAngle, true, mPaint[BGND2]);
+                // each band is nested inside the previous one, so they are drawn lightest first.
+                for (int b = 0; b < FaceState.BANDS; b++) {
+                    if (mState.bandSweeps[b] > 0f) {
+                        canvas.drawArc(0f, 0f, width, height,
+                                mState.bandAngles[b], mState.bandSweeps[b], true, mTwilightPaint[b]);
+                    }
+                }
                 // This puts a thin brighter line along the edge of the sunrise/set line.
                 // (but this can look confusingly like another hand, second hand, etc.)
-                // canvas.drawArc(0f, 0f, width, height, mSunsetAngle, mNightAngle, true, mPaint[BGND3]);
+                // canvas.drawArc(0f, 0f, width, height, mState.sunsetAngle, mState.nightAngle, true, mPaint[BGND3]);
             }
-            canvas.drawText(LOGO, mCenterX - mLogoOffset, mCenterY * LOGO_POS_Y, mPaint[LOGO1]);
+        }
 
-            // DEBUG
-            // canvas.drawText(locMsg, mCenterX - 100, mCenterY + 100, mPaint[LOGO1]);
+        /**
+         * Gets the pre-rendered text for the current mode, rendering it if necessary.
+         * The paints only change with the mode, so each atlas is built at most once.
+         */
+        private GlyphAtlas getGlyphs() {
+            int mode = (mAmbient ? 1 : 0) + (mMuteMode ? 2 : 0);
+            if (mGlyphs[mode] == null) {
+                mGlyphs[mode] = new GlyphAtlas(mPaint[HOURS]);
+                mLogoGlyph = mGlyphs[mode].add(LOGO, mPaint[LOGO1]);
+            }
+            return mGlyphs[mode];
         }
 
         private void drawWatchFace(Canvas canvas, float hours) {
+            FaceLayout layout = mLayout;
+            GlyphAtlas glyphs = getGlyphs();
+            glyphs.drawText(canvas, mLogoGlyph, layout.logoX, layout.logoY);
+
+            // DEBUG
+            // canvas.drawText(mState.toString(), mCenterX - 100, mCenterY + 100, mPaint[LOGO1]);
 
             /*
              * Draw ticks. Usually you will want to bake this directly into the photo, but in
              * cases where you want to allow users to select their own photos, this dynamically
              * creates them on top of the photo.
+             *
+             * The major ticks (every three hours) are always drawn, but the hourly and
+             * quarter-hour ticks are drawn only in the quadrant where the current time is.
+             * All the tick positions are precalculated (see FaceLayout), and numbers stay upright.
              */
-
-            /*
-            // Draw the hourly tick marks around the outside.
-            // Each mark is drawn down the bottom of the watchface, starting from 0.
-            float bottom = mCenterY * 2f;  // Y position of bottom of whole watchface
-            float top = bottom - mMajorTickLength; // top of all the ticks
-            for (int hh = 0; hh < 24; hh++) {
-                final float len = (hh % 1 == 0) ? mMajorTickLength : mMinorTickLength;
-                final Paint paint = (!mAmbient && hh % 1 == 0) ? mMajorPaint : mMinorPaint;
-                canvas.drawLine(mCenterX, bottom, mCenterX, top, paint);
-                // now draw the hour number
-                if (hh % 3 == 0) {
-                    String numStr = String.valueOf(hh);
-                    float textBottom = top - 4;
-                    float textLeft = mNumbersPaint.measureText(numStr) / 2f;
-                    canvas.drawText(numStr, mCenterX - textLeft, textBottom, mNumbersPaint);
-                }
-                canvas.rotate(15.0f, mCenterX, mCenterY);
-            }
-            */
-
-            /* Code that does not rotate canvas, so all numbers are upright. */
-            float innerTickRadius = mCenterX - mMajorTickLength;
-            float outerTickRadius = mCenterX;
-            double tickAngle = Math.PI * 2 / (24 * 4);
-            for (int tickIndex = 0; tickIndex < 24 * 4; tickIndex++) {
-                float tickRot = (float) (tickIndex * tickAngle);
-                int hour = tickIndex / 4;
-                boolean draw = false;
-                float inner = innerTickRadius; // inner radius of this tick mark
-                float outer = outerTickRadius; // outer radius of this tick mark
-                Paint paint = null;
-                if (tickIndex % (3 * 4) == 0) {
-                    // draw a major tick (for each six hours)
-                    draw = true;
-                    // inner = mCenterX - 2 * mMajorTickLength;
-                    paint = mPaint[TICK1];
-                } else if (tickIndex % 4 == 0) {
-                    // draw a major tick (for each hour)
-                    draw = sameQuadrant(hour, hours) || (hour % 6 == 0); // was: true;
-                    paint = mPaint[TICK1];
-                } else if (!mAmbient) {
-                    // draw a minor tick (for each 1/4 hour)
-                    draw = sameQuadrant(hour, hours);  // was: true;
-                    outer = innerTickRadius + mMinorTickLength;
-                    paint = mPaint[TICK2];
-                }
-                if (draw) {
-                    float innerX = (float) -Math.sin(tickRot) * inner;
-                    float innerY = (float) Math.cos(tickRot) * inner;
-                    float outerX = (float) -Math.sin(tickRot) * outer;
-                    float outerY = (float) Math.cos(tickRot) * outer;
-                    canvas.drawLine(mCenterX + innerX, mCenterY + innerY,
-                            mCenterX + outerX, mCenterY + outerY, paint);
-                    // now draw the hour number
-                    if (!mAmbient && tickIndex % (3 * 4) == 0) {
-                        drawHourNumber(canvas, tickRot, hour);
-                    }
+            int quadrant = FaceLayout.quadrant(hours);
+            canvas.drawLines(layout.majorTicks, mPaint[TICK1]);
+            canvas.drawLines(layout.hourTicks[quadrant], mPaint[TICK1]);
+            if (!mAmbient) {
+                canvas.drawLines(layout.quarterTicks[quadrant], mPaint[TICK2]);
+                for (int i = 0; i < FaceLayout.NUMBERS; i++) {
+                    glyphs.drawNumber(canvas, i * FaceLayout.NUMBER_STEP,
+                            layout.numberX[i], layout.numberY[i]);
                 }
             }
         }
 
-        /**
-         * True iff hour is in the quadrant of the watch where the current time is.
-         *
-         * @param hour
-         * @param hours
-         * @return
-         */
-        private boolean sameQuadrant(int hour, float hours) {
-            return hour / 3 == ((int) hours) / 3;
-        }
-
-        private void drawHourNumber(Canvas canvas, float tickRot, int hour) {
-            float innerTickRadius = mCenterX - mMajorTickLength;
-            float textRadius = innerTickRadius - NUMBERS_FONT_SIZE * 0.7f;
-            String numStr = String.valueOf(hour);
-            // calculate the centre of the text position
-            float textX = (float) -Math.sin(tickRot) * textRadius;
-            float textY = (float) Math.cos(tickRot) * textRadius;
-            // System.out.printf("%d (%.1f,%.1f) ", hour, textX, textY);
-            float textLeft = mCenterX + textX - mPaint[HOURS].measureText(numStr) / 2f;
-            float textBottom = mCenterY + textY + NUMBERS_FONT_SIZE / 2f;
-            canvas.drawText(numStr, textLeft, textBottom, mPaint[HOURS]);
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -840,7 +962,8 @@ public class Be24WatchFace extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
                 /* Update time zone in case it changed while we weren't visible. */
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mTimeBase.setZone(ZoneId.systemDefault());
+                mFullRedraw = true;
                 invalidate();
             } else {
                 unregisterReceiver();
@@ -889,13 +1012,25 @@ public class Be24WatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
-            invalidate();
+            mProfiler.wake();
+            drawIncremental();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                scheduleNextUpdate();
             }
         }
+
+        /**
+         * Sleeps until the next time that something visible will change.
+         */
+        @VisibleForTesting
+        void scheduleNextUpdate() {
+            mScheduledState = mWorker.getState();
+            mScheduler.setEvents(mScheduledState);
+            long now = System.currentTimeMillis();
+            float hoursNow = mTimeBase.exactHours(now);
+            long delayMs = mScheduler.nextDelay(now, hoursNow, mTimeBase.nextMidnight());
+            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+        }
     }
 }
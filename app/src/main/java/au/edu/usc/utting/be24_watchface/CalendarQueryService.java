@@ -1,276 +1,289 @@
 package au.edu.usc.utting.be24_watchface;
 
-import static au.edu.usc.utting.be24_watchface.Constants.TAG;
-import static au.edu.usc.utting.be24_watchface.Constants.CONNECTION_TIME_OUT_MS;
-import static au.edu.usc.utting.be24_watchface.Constants.CAL_DATA_ITEM_PATH_PREFIX;
-import static au.edu.usc.utting.be24_watchface.Constants.ALL_DAY;
-import static au.edu.usc.utting.be24_watchface.Constants.BEGIN;
-import static au.edu.usc.utting.be24_watchface.Constants.DATA_ITEM_URI;
-import static au.edu.usc.utting.be24_watchface.Constants.DESCRIPTION;
-import static au.edu.usc.utting.be24_watchface.Constants.END;
-import static au.edu.usc.utting.be24_watchface.Constants.EVENT_ID;
-import static au.edu.usc.utting.be24_watchface.Constants.ID;
-import static au.edu.usc.utting.be24_watchface.Constants.TITLE;
-import static au.edu.usc.utting.be24_watchface.Constants.COLOR;
-
-import android.app.IntentService;
+import android.Manifest;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.Bundle;
-import android.os.ResultReceiver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PersistableBundle;
+import android.os.Process;
 import android.provider.CalendarContract;
-import android.provider.ContactsContract.CommonDataKinds.Email;
-import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.Data;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.wearable.provider.WearableCalendarContract;
 import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
-import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Queries calendar events using Android WearableCalendarContract API and creates an
- * Appointment item for each calendar event instance.
+ * A background job that reads the upcoming calendar instances and passes them to the watchface.
  *
- * This code is adapted from: https://www.programcreek.com/java-api-examples/?code=mauimauer/AndroidWearable-Samples/AndroidWearable-Samples-master/AgendaData/Application/src/main/java/com/example/android/wearable/agendadata/CalendarQueryService.java
- * And also from: https://www.javatips.net/api/android.support.wearable.provider.wearablecalendarcontract
- *
- * To send data back to UI:
- * * https://developers.google.com/android/reference/com/google/android/gms/wearable/DataClient ?
+ * Two jobs are scheduled (see schedule): a periodic one, and one that is triggered
+ * (after a short delay) whenever the calendar providers report a change.
+ * Each sync reads a bounded window of days, starting today, one day per query,
+ * so that no cursor ever holds more than one day of instances.  The results are
+ * broadcast within this process as an AppointmentCodec array, with the window
+ * (see ACTION_APPOINTMENTS).  The face's worker puts them straight into its index,
+ * so it does not need to query those days itself, nor watch the calendar for changes.
+ * The jobs are cancelled when the face is removed (see cancel).
  *
+ * A sync is skipped entirely if nothing can have changed since the last one.
+ * That is, its sync token (the window plus the number of calendar changes that have
+ * been reported) is the same as that of the last successful sync.
  */
-public class CalendarQueryService extends IntentService
-        implements ConnectionCallbacks, OnConnectionFailedListener {
-
+public class CalendarQueryService extends JobService {
+    private static final String TAG = CalendarQueryService.class.getSimpleName();
+
+    /** Broadcast (via LocalBroadcastManager) after each sync. */
+    public static final String ACTION_APPOINTMENTS = "au.edu.usc.utting.be24_watchface.APPOINTMENTS";
+    /** The appointment instances (a byte array, see AppointmentCodec). */
+    public static final String APPOINTMENTS = "appointments";
+    /** Start of the window that was read (epoch millis of local midnight). */
+    public static final String BEGIN = "begin";
+    /** End of the window that was read (epoch millis of local midnight). */
+    public static final String END = "end";
+
+    /** Job extra: how many days to read, starting today. */
+    static final String LOOK_AHEAD_DAYS = "look_ahead_days";
+    /** Today and tomorrow, so the face is ready when the day rolls over. */
+    static final int DEFAULT_LOOK_AHEAD_DAYS = 2;
+    /** The face does not keep any more days than this (see AppointmentIndex). */
+    static final int MAX_LOOK_AHEAD_DAYS = AppointmentIndex.DAYS_AFTER + 1;
+
+    private static final int JOB_PERIODIC = 1;
+    private static final int JOB_CALENDAR_CHANGED = 2;
+    private static final long SYNC_INTERVAL_MS = TimeUnit.HOURS.toMillis(6);
+    /** Calendar syncs cause a burst of changes, so wait until they settle down. */
+    private static final long CHANGE_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long CHANGE_MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String PREFS = "calendar_sync";
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_TOKEN = "token";
+
+    /** Just the columns that the face needs, to keep the queries cheap. */
     private static final String[] INSTANCE_PROJECTION = {
             CalendarContract.Instances._ID,
-            CalendarContract.Instances.EVENT_ID,
-            CalendarContract.Instances.TITLE,
             CalendarContract.Instances.BEGIN,
             CalendarContract.Instances.END,
             CalendarContract.Instances.ALL_DAY,
-            CalendarContract.Instances.DESCRIPTION,
-            CalendarContract.Instances.CALENDAR_COLOR,
+            CalendarContract.Instances.CALENDAR_COLOR, // or use EVENT_COLOR?
     };
 
-    private GoogleApiClient mGoogleApiClient;
-
-    public CalendarQueryService() {
-        super(CalendarQueryService.class.getSimpleName());
+    private HandlerThread mThread;
+    private Handler mHandler;
+    /** The ids of the jobs that the system has stopped, so that their syncs can give up early. */
+    private final Set<Integer> mStoppedJobs = Collections.synchronizedSet(new HashSet<Integer>());
+
+    /**
+     * Schedules the sync jobs, unless they are already scheduled.
+     *
+     * @param context any context in this app.
+     * @param lookAheadDays how many days to read, starting today (1..MAX_LOOK_AHEAD_DAYS).
+     * @return true if calendar changes will trigger a sync, false if the caller must watch for them.
+     */
+    static boolean schedule(Context context, int lookAheadDays) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler.getPendingJob(JOB_PERIODIC) == null) {
+            scheduler.schedule(new JobInfo.Builder(JOB_PERIODIC, component(context))
+                    .setPeriodic(SYNC_INTERVAL_MS)
+                    .setRequiresBatteryNotLow(true)
+                    .setPersisted(false)
+                    .setExtras(extras(lookAheadDays))
+                    .build());
+        }
+        return scheduler.getPendingJob(JOB_CALENDAR_CHANGED) != null
+                || scheduleCalendarChanged(context, scheduler, lookAheadDays);
     }
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
+    /**
+     * Cancels the sync jobs, when the face is removed.
+     *
+     * @param context any context in this app.
+     */
+    static void cancel(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_PERIODIC);
+        scheduler.cancel(JOB_CALENDAR_CHANGED);
     }
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        ResultReceiver resultReceiver = intent.getParcelableExtra("RESULT_RECEIVER");
-        mGoogleApiClient.blockingConnect(CONNECTION_TIME_OUT_MS, TimeUnit.MILLISECONDS);
-        // Query calendar events in the next 3 days.
-        Calendar cal = Calendar.getInstance();
-        long now = System.currentTimeMillis();
-        cal.setTimeInMillis(now);
-
-        cal.set(Calendar.DAY_OF_MONTH, 0);  // temp
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        long beginTime = cal.getTimeInMillis();
-
-        String beginStr = cal.getTime().toString();
-
-        cal.set(Calendar.DAY_OF_YEAR, 360); // temp!
-        cal.set(Calendar.HOUR_OF_DAY, 23);
-        cal.set(Calendar.MINUTE, 59);
-        long endTime = cal.getTimeInMillis();
-
-        String endStr = cal.getTime().toString();
-
-        Log.e(TAG, "Querying events from " + beginStr + " to " + endStr);
-        List<Event> events = queryEvents(this, beginTime, endTime);
-
-        // From https://proandroiddev.com/intentservice-and-resultreceiver-70de71e5e40a
-        Bundle bundle = new Bundle();
-        List<Appointments.Appointment> appts = new ArrayList<>();
-        for (Event event : events) {
-            float startHour = event.begin;
-            float endHour = event.end;
-            int color = event.color;
-            appts.add(new Appointments.Appointment(startHour, endHour, false, color));
-            /*
-            final PutDataMapRequest putDataMapRequest = event.toPutDataMapRequest();
-            if (mGoogleApiClient.isConnected()) {
-                Wearable.DataApi.putDataItem(
-                        mGoogleApiClient, putDataMapRequest.asPutDataRequest()).await();
-            } else {
-                Log.e(TAG, "Failed to send data item: " + putDataMapRequest
-                        + " - Client disconnected from Google Play Services");
-            }
-            */
-        }
-        // bundle.putSerializable(Be24WatchFace.CalendarReceiver.APPOINTMENTS_LIST, (Serializable) appts);
-        resultReceiver.send(0, bundle);
-        mGoogleApiClient.disconnect();
+    /** Content-triggered jobs only run once, so this is rescheduled each time it runs. */
+    private static boolean scheduleCalendarChanged(Context context, JobScheduler scheduler,
+                                                   int lookAheadDays) {
+        JobInfo.TriggerContentUri calendar = new JobInfo.TriggerContentUri(
+                WearableCalendarContract.CONTENT_URI, JobInfo.TriggerContentUri.FLAG_NOTIFY_FOR_DESCENDANTS);
+        return scheduler.schedule(new JobInfo.Builder(JOB_CALENDAR_CHANGED, component(context))
+                .addTriggerContentUri(calendar)
+                .setTriggerContentUpdateDelay(CHANGE_DELAY_MS)
+                .setTriggerContentMaxDelay(CHANGE_MAX_DELAY_MS)
+                .setExtras(extras(lookAheadDays))
+                .build()) == JobScheduler.RESULT_SUCCESS;
     }
 
-    private static String makeDataItemPath(long eventId, long beginTime) {
-        return CAL_DATA_ITEM_PATH_PREFIX + eventId + "/" + beginTime;
+    private static ComponentName component(Context context) {
+        return new ComponentName(context, CalendarQueryService.class);
     }
 
-    private static List<Event> queryEvents(Context context, long beginTime, long endTime) {
-        ContentResolver contentResolver = context.getContentResolver();
-        Uri.Builder builder = WearableCalendarContract.Instances.CONTENT_URI.buildUpon();
-        ContentUris.appendId(builder, beginTime);
-        ContentUris.appendId(builder, endTime);
-        Uri uri = builder.build();
-
-        Cursor cursor = contentResolver.query(uri, INSTANCE_PROJECTION,
-                null, null, null);
-
-        Log.e(TAG, "Queried events " + uri.toString() + " gives count=" + cursor.getCount());
-        try {
-            int idIdx = cursor.getColumnIndex(CalendarContract.Instances._ID);
-            int eventIdIdx = cursor.getColumnIndex(CalendarContract.Instances.EVENT_ID);
-            int titleIdx = cursor.getColumnIndex(CalendarContract.Instances.TITLE);
-            int beginIdx = cursor.getColumnIndex(CalendarContract.Instances.BEGIN);
-            int endIdx = cursor.getColumnIndex(CalendarContract.Instances.END);
-            int allDayIdx = cursor.getColumnIndex(CalendarContract.Instances.ALL_DAY);
-            int descIdx = cursor.getColumnIndex(CalendarContract.Instances.DESCRIPTION);
-            int color = cursor.getColumnIndex(CalendarContract.Instances.CALENDAR_COLOR);
-
-            List<Event> events = new ArrayList<Event>(cursor.getCount());
-            while (cursor.moveToNext()) {
-                Event event = new Event();
-                event.id = cursor.getLong(idIdx);
-                event.eventId = cursor.getLong(eventIdIdx);
-                event.title = cursor.getString(titleIdx);
-                event.begin = cursor.getLong(beginIdx);
-                event.end = cursor.getLong(endIdx);
-                event.allDay = cursor.getInt(allDayIdx) != 0;
-                event.description = cursor.getString(descIdx);
-                event.color = cursor.getInt(color);
-                Log.e(TAG, "  Got event " + event.title);
-                events.add(event);
-            }
-            return events;
-        } finally {
-            cursor.close();
-        }
+    private static PersistableBundle extras(int lookAheadDays) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(LOOK_AHEAD_DAYS, lookAheadDays);
+        return extras;
     }
 
     @Override
-    public void onConnected(Bundle connectionHint) {
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
     }
 
     @Override
-    public void onConnectionSuspended(int cause) {
+    public void onDestroy() {
+        mThread.quitSafely();
+        super.onDestroy();
     }
 
     @Override
-    public void onConnectionFailed(ConnectionResult result) {
+    public boolean onStartJob(final JobParameters params) {
+        int days = params.getExtras().getInt(LOOK_AHEAD_DAYS, DEFAULT_LOOK_AHEAD_DAYS);
+        final int lookAheadDays = Math.max(1, Math.min(MAX_LOOK_AHEAD_DAYS, days));
+        final SharedPreferences prefs = getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        final int jobId = params.getJobId();
+        JobScheduler scheduler = (JobScheduler) getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler.getPendingJob(JOB_PERIODIC) == null) {
+            // the face has been removed (see cancel), so do not sync or reschedule.
+            return false;
+        }
+        if (jobId == JOB_CALENDAR_CHANGED) {
+            prefs.edit().putInt(KEY_CHANGES, prefs.getInt(KEY_CHANGES, 0) + 1).apply();
+            scheduleCalendarChanged(this, scheduler, lookAheadDays);
+        }
+        mStoppedJobs.remove(jobId);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                sync(prefs, lookAheadDays, jobId);
+                jobFinished(params, false);
+            }
+        });
+        return true;
     }
 
-    private static Asset getDefaultProfile(Resources res) {
-        Bitmap bitmap = BitmapFactory.decodeResource(res, R.drawable.sunrise);
-        return Asset.createFromBytes(toByteArray(bitmap));
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // the sync token is only saved after a complete sync, so the next job will redo it.
+        mStoppedJobs.add(params.getJobId());
+        return false;
     }
 
-    private static Asset getProfilePicture(ContentResolver contentResolver, Context context,
-                                           long contactId) {
-        if (contactId != -1) {
-            // Try to retrieve the profile picture for the given contact.
-            Uri contactUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
-            InputStream inputStream = Contacts.openContactPhotoInputStream(contentResolver,
-                    contactUri, true /*preferHighres*/);
+    /**
+     * Reads the window of days from the calendar, then broadcasts the instances.
+     * Runs on the job thread.
+     *
+     * @param jobId the job that this sync is for, which gives up if that job is stopped.
+     */
+    private void sync(SharedPreferences prefs, int lookAheadDays, int jobId) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "No READ_CALENDAR permission.");
+            return;
+        }
+        Calendar cal = Calendar.getInstance();
+        long begin = AppointmentIndex.startOfDay(System.currentTimeMillis(), cal);
+        long end = AppointmentIndex.addDays(begin, lookAheadDays, cal);
+        String token = begin + "/" + end + "/" + prefs.getInt(KEY_CHANGES, 0);
+        if (token.equals(prefs.getString(KEY_TOKEN, null))) {
+            Log.d(TAG, "calendar has not changed since sync " + token);
+            return;
+        }
 
-            if (null != inputStream) {
-                try {
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    if (bitmap != null) {
-                        return Asset.createFromBytes(toByteArray(bitmap));
-                    } else {
-                        Log.e(TAG, "Cannot decode profile picture for contact " + contactId);
-                    }
-                } finally {
-                    closeQuietly(inputStream);
+        final AppointmentCodec.Encoder appts = new AppointmentCodec.Encoder();
+        final Set<Long> seen = new HashSet<>();
+        AppointmentCodec.Sink sink = new AppointmentCodec.Sink() {
+            @Override
+            public void add(long id, long begin, long end, boolean allDay, int color) {
+                // instances that cross midnight are returned for each day.
+                if (seen.add(id)) {
+                    appts.add(id, begin, end, allDay, color);
                 }
             }
+        };
+        ContentResolver resolver = getContentResolver();
+        for (long day = begin; day < end; day = AppointmentIndex.addDays(day, 1, cal)) {
+            long next = AppointmentIndex.addDays(day, 1, cal);
+            if (mStoppedJobs.contains(jobId) || queryInstances(resolver, day, next, sink) < 0) {
+                return;
+            }
         }
-        // Use a default background image if the user has no profile picture or there was an error.
-        return getDefaultProfile(context.getResources());
-    }
-
-    private static byte[] toByteArray(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] byteArray = stream.toByteArray();
-        closeQuietly(stream);
-        return byteArray;
-    }
 
-    private static void closeQuietly(Closeable closeable) {
-        try {
-            closeable.close();
-        } catch (IOException e) {
-            Log.e(TAG, "IOException while closing closeable.", e);
-        }
+        Intent intent = new Intent(ACTION_APPOINTMENTS);
+        intent.putExtra(BEGIN, begin);
+        intent.putExtra(END, end);
+        intent.putExtra(APPOINTMENTS, appts.toByteArray());
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        prefs.edit().putString(KEY_TOKEN, token).apply();
+        Log.d(TAG, "synced " + appts.size() + " instances for " + token);
     }
 
-    private static class Event {
-
-        public long id;
-        public long eventId;
-        public String title;
-        public long begin;
-        public long end;
-        public boolean allDay;
-        public String description;
-        public int color;
+    /**
+     * Reads the appointment instances that overlap a time range (usually one day).
+     *
+     * NOTE: WearableCalendarContract does not sync all data now.
+     * See issue: https://issuetracker.google.com/issues/38476499
+     *
+     * @param resolver
+     * @param beginTime start of the range (epoch millis).
+     * @param endTime end of the range (epoch millis).
+     * @param sink receives each instance.
+     * @return the number of instances, or -1 if the calendar is not available.
+     */
+    static int queryInstances(ContentResolver resolver, long beginTime, long endTime,
+                              AppointmentCodec.Sink sink) {
+        Uri.Builder builder = WearableCalendarContract.Instances.CONTENT_URI.buildUpon();
+        ContentUris.appendId(builder, beginTime);
+        ContentUris.appendId(builder, endTime);
+        Uri uri = builder.build();
 
-        public PutDataMapRequest toPutDataMapRequest(){
-            final PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(
-                    makeDataItemPath(eventId, begin));
-            DataMap data = putDataMapRequest.getDataMap();
-            data.putString(DATA_ITEM_URI, putDataMapRequest.getUri().toString());
-            data.putLong(ID, id);
-            data.putLong(EVENT_ID, eventId);
-            data.putString(TITLE, title);
-            data.putLong(BEGIN, begin);
-            data.putLong(END, end);
-            data.putBoolean(ALL_DAY, allDay);
-            data.putString(DESCRIPTION, description);
-            data.putInt(COLOR, color);
+        long now = System.currentTimeMillis();
+        try (Cursor cursor = resolver.query(uri, INSTANCE_PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                return -1;
+            }
+            int idIdx = cursor.getColumnIndex(CalendarContract.Instances._ID);
+            int beginIdx = cursor.getColumnIndex(CalendarContract.Instances.BEGIN);
+            int endIdx = cursor.getColumnIndex(CalendarContract.Instances.END);
+            int allDayIdx = cursor.getColumnIndex(CalendarContract.Instances.ALL_DAY);
+            int colorIdx = cursor.getColumnIndex(CalendarContract.Instances.CALENDAR_COLOR);
 
-            return putDataMapRequest;
+            int count = 0;
+            while (cursor.moveToNext()) {
+                sink.add(cursor.getLong(idIdx),
+                        cursor.getLong(beginIdx),
+                        cursor.getLong(endIdx),
+                        cursor.getInt(allDayIdx) != 0,
+                        cursor.getInt(colorIdx));
+                count++;
+            }
+            long then = System.currentTimeMillis();
+            Log.d(TAG, "Query calendar " + beginTime + ".." + endTime
+                    + " gives count=" + count + " in " + (then - now) + "ms.");
+            return count;
         }
     }
 }
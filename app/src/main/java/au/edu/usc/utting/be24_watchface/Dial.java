@@ -0,0 +1,32 @@
+package au.edu.usc.utting.be24_watchface;
+
+/**
+ * Conversions between times of day and angles on the 24-hour dial.
+ */
+final class Dial {
+    private Dial() {
+    }
+
+    /**
+     * Converts a given number of hours (0..24) into the corresponding angle.
+     * Note: 00 hours is at the bottom (South).
+     * Note: East=0 degrees, South=90 degrees, West=180, North=270.
+     *
+     * @param time24 0..24.0 hours.
+     * @return angle in degrees (always in the range 0..360.0)
+     */
+    static float angle(float time24) {
+        return (time24 * 360f / 24f + 90.0f) % 360f;
+    }
+
+    /**
+     * Calculates the clockwise sweep angle between two times.
+     *
+     * @param start24 start time 0..24.0 hours.
+     * @param end24 end time 0..24.0 hours.
+     * @return sweep angle in degrees clockwise (always in the range 0..360.0)
+     */
+    static float sweep(float start24, float end24) {
+        return ((24.0f + end24 - start24) * (360f / 24f)) % 360f;
+    }
+}
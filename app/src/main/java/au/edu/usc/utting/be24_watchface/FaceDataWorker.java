@@ -0,0 +1,547 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.CalendarContract;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.ContextCompat;
+import android.support.wearable.provider.WearableCalendarContract;
+import android.util.Log;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Does all the slow data acquisition for the watchface on a background thread.
+ *
+ * This owns the calendar queries, the location requests and the sunrise/sunset calculations.
+ * After each update it publishes a new immutable FaceState snapshot, which the engine
+ * picks up in its next onDraw.  So frame times never depend upon the latency of the
+ * calendar provider (which can take hundreds of milliseconds when it is cold).
+ *
+ * The worker also watches the calendar providers for changes, so appointments are
+ * re-read only when something has actually changed.
+ *
+ * The last snapshot (and the hour hand style) is saved in a FaceSnapshotStore,
+ * so that a new engine can draw its first frame from it, rather than from the
+ * default location with no appointments.  Fresh data then replaces it as usual.
+ */
+class FaceDataWorker {
+    private static final String TAG = FaceDataWorker.class.getSimpleName();
+
+    /**
+     * How long to wait after a calendar change before re-reading the appointments.
+     * Calendar syncs usually cause a burst of change notifications, so this coalesces them.
+     */
+    private static final long CALENDAR_CHANGE_DELAY_MS = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long ONE_DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** How long to wait after a change before saving the snapshot, so that bursts are saved once. */
+    private static final long SAVE_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Location updates are requested rarely, with balanced power, since sunrise/sunset
+     * only changes noticeably after travelling tens of kilometres.  Fixes that other apps
+     * request are also passed on to us, but not more often than the fastest interval.
+     */
+    private static final long LOCATION_INTERVAL_MS = TimeUnit.HOURS.toMillis(3);
+    private static final long LOCATION_FASTEST_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+
+    /** Called on the worker thread each time a new snapshot is published. */
+    interface Listener {
+        void onFaceStateChanged(FaceState state);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final AtomicReference<FaceState> mState = new AtomicReference<>();
+    private final FusedLocationProviderClient mFusedLocationClient;
+    /** Fixes closer than this to the last used position are ignored. */
+    private final float mMinLocationDistanceM;
+    private final LocationGate mLocationGate;
+    private boolean mLocationUpdates = false;
+    private final ContentObserver mCalendarObserver;
+    private boolean mObservingCalendar = false;
+
+    /** Appointment instances for the last few days and the next few days. */
+    private final AppointmentIndex mIndex = new AppointmentIndex();
+    /** Only used on the worker thread. */
+    private final Calendar mCalendar = Calendar.getInstance();
+    /** Sunrise/sunset for each day of the year, at our current location. */
+    private SunTable mSunTable;
+
+    private final FaceSnapshotStore mStore;
+    /** The hour hand style when the worker started (from the saved snapshot). */
+    private final int mSavedHandStyle;
+    /** Only used on the worker thread. */
+    private int mHandStyle;
+    private boolean mSavePending = false;
+
+    /** Runs location callbacks on the worker thread. */
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private final Runnable mUpdateAppointments = new Runnable() {
+        @Override
+        public void run() {
+            // if midnight passes while building, the appointments are labelled with the older day.
+            long day = today();
+            publish(mState.get().withAppointments(buildAppointments(), day));
+        }
+    };
+
+    /** Forgets all the appointments that we know about, then re-reads them. */
+    private final Runnable mReloadAppointments = new Runnable() {
+        @Override
+        public void run() {
+            mIndex.clear();
+            mUpdateAppointments.run();
+        }
+    };
+
+    /** Reads the next day that is not yet in the index, ready for when the day rolls over. */
+    private final Runnable mPrefetchDay = new Runnable() {
+        @Override
+        public void run() {
+            long today = AppointmentIndex.startOfDay(System.currentTimeMillis(), mCalendar);
+            loadDays(today, AppointmentIndex.addDays(today, 2, mCalendar));
+        }
+    };
+
+    private final Runnable mUpdateSun = new Runnable() {
+        @Override
+        public void run() {
+            FaceState state = mState.get();
+            publish(lookupSun(state, state.latitude, state.longitude));
+        }
+    };
+
+    private final Runnable mSave = new Runnable() {
+        @Override
+        public void run() {
+            mSavePending = false;
+            // the day that the data was computed for, which may be before midnight.
+            FaceState state = mState.get();
+            mStore.write(new FaceSnapshotStore.Snapshot(state.epochDay(), mHandStyle, state));
+        }
+    };
+
+    private final OnSuccessListener<Location> mLocationListener = new OnSuccessListener<Location>() {
+        @Override
+        public void onSuccess(Location location) {
+            // Got last known location. In some rare situations this can be null.
+            if (location != null) {
+                updateLocation(location);
+            }
+        }
+    };
+
+    /** Receives the periodic location updates, on the worker thread. */
+    private final LocationCallback mLocationCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult result) {
+            Location location = result == null ? null : result.getLastLocation();
+            if (location != null) {
+                updateLocation(location);
+            }
+        }
+    };
+
+    /**
+     * Create and start the worker thread.
+     *
+     * The initial snapshot is ready immediately, so that the first frame can be drawn
+     * without waiting for the worker.  If the saved snapshot is from today it is used as is.
+     * If it is from an earlier day, just its location is used, with sunrise/sunset
+     * recalculated for today.  Otherwise sunrise/sunset is calculated for the default location.
+     *
+     * @param context
+     * @param store where the snapshot is saved between engines.
+     * @param latitude default latitude, used until the real location is known.
+     * @param longitude default longitude.
+     * @param minLocationDistanceM location fixes closer than this (in metres) to the last
+     *                             used position are ignored.
+     * @param listener notified (on the worker thread) of each new snapshot.
+     */
+    FaceDataWorker(Context context, FaceSnapshotStore store, double latitude, double longitude,
+                   float minLocationDistanceM, Listener listener) {
+        mContext = context;
+        mListener = listener;
+        mStore = store;
+        mMinLocationDistanceM = minLocationDistanceM;
+        mLocationGate = new LocationGate(minLocationDistanceM);
+        FaceSnapshotStore.Snapshot saved = store.read();
+        if (saved != null && saved.epochDay == today()) {
+            mState.set(saved.state);
+            mLocationGate.setPosition(saved.state.latitude, saved.state.longitude);
+        } else {
+            if (saved != null) {
+                latitude = saved.state.latitude;
+                longitude = saved.state.longitude;
+                mLocationGate.setPosition(latitude, longitude);
+            }
+            long today = today();
+            FaceState initial = new FaceState(latitude, longitude,
+                    new float[SunCalculator.TWILIGHT_RESULTS], today, null, today, 0);
+            mState.set(calculateSun(initial, latitude, longitude));
+        }
+        mSavedHandStyle = saved == null ? 0 : saved.handStyle;
+        mHandStyle = mSavedHandStyle;
+        Log.d(TAG, "initial " + mState.get() + (saved == null ? "" : " (from saved snapshot)"));
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        mCalendarObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // restart the delay, so that a burst of changes causes just one reload.
+                mHandler.removeCallbacks(mReloadAppointments);
+                mHandler.postDelayed(mReloadAppointments, CALENDAR_CHANGE_DELAY_MS);
+            }
+        };
+    }
+
+    /** The hour hand style from the saved snapshot (0 if there was none). */
+    int getSavedHandStyle() {
+        return mSavedHandStyle;
+    }
+
+    /** Saves the hour hand style with the snapshot, so that the next engine starts with it. */
+    void setHandStyle(final int style) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandStyle = style;
+                scheduleSave();
+            }
+        });
+    }
+
+    /** The latest snapshot.  This is safe to call from any thread. */
+    FaceState getState() {
+        return mState.get();
+    }
+
+    /**
+     * Asks the worker to update the appointments for the current day.
+     * Only days that are not already in the index are read from the calendar.
+     */
+    void requestAppointments() {
+        mHandler.removeCallbacks(mUpdateAppointments);
+        mHandler.post(mUpdateAppointments);
+    }
+
+    /**
+     * Asks the worker to forget what it knows about the calendar, and re-read it.
+     * This is needed when the timezone changes, since the index is organised by local days.
+     */
+    void reloadAppointments() {
+        mHandler.removeCallbacks(mReloadAppointments);
+        mHandler.post(mReloadAppointments);
+    }
+
+    /**
+     * Starts watching the calendar providers, so that appointments are re-read
+     * whenever they change.  This watches the wearable calendar (which is what we query),
+     * and also the phone-style calendar provider, where that is available.
+     */
+    void startObservingCalendar() {
+        if (mObservingCalendar) {
+            return;
+        }
+        mObservingCalendar = true;
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.registerContentObserver(WearableCalendarContract.CONTENT_URI, true, mCalendarObserver);
+        try {
+            resolver.registerContentObserver(CalendarContract.CONTENT_URI, true, mCalendarObserver);
+        } catch (SecurityException ex) {
+            Log.d(TAG, "cannot observe " + CalendarContract.CONTENT_URI);
+        }
+    }
+
+    /** Stops watching the calendar providers. */
+    void stopObservingCalendar() {
+        if (!mObservingCalendar) {
+            return;
+        }
+        mObservingCalendar = false;
+        mContext.getContentResolver().unregisterContentObserver(mCalendarObserver);
+    }
+
+    /**
+     * Replaces today's appointments with the given ones, without reading the calendar.
+     * This is used by the render tests, to draw a known number of appointments.
+     */
+    @VisibleForTesting
+    void setAppointments(final Appointments appts) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                publish(mState.get().withAppointments(appts, today()));
+            }
+        });
+    }
+
+    /**
+     * Puts instances read by CalendarQueryService into the index, replacing those days,
+     * then updates the appointments (without querying the calendar for those days).
+     *
+     * @param data the instances (see AppointmentCodec).
+     * @param from start of the first day that was read.
+     * @param to start of the day after the last day that was read.
+     */
+    void putAppointments(final byte[] data, final long from, final long to) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCalendar.setTimeZone(TimeZone.getDefault());
+                try {
+                    mIndex.putDays(from, to, data, mCalendar);
+                } catch (IOException ex) {
+                    Log.w(TAG, "bad appointments from sync", ex);
+                    return;
+                }
+                mUpdateAppointments.run();
+            }
+        });
+    }
+
+    /** Asks the worker to recalculate sunrise/sunset for today (e.g. after a timezone change). */
+    void requestSun() {
+        mHandler.post(mUpdateSun);
+    }
+
+    /**
+     * Asks the worker to get the current location, then update sunrise/sunset.
+     * See https://developer.android.com/training/location/retrieve-current
+     */
+    void requestLocation() {
+        try {
+            mFusedLocationClient.getLastLocation().addOnSuccessListener(mExecutor, mLocationListener);
+        } catch (SecurityException ex) {
+            Log.d(TAG, "requestLocation() location permissions denied.");
+        }
+    }
+
+    /**
+     * Starts low-power periodic location updates, so that sunrise/sunset follows the
+     * user when they travel.  See LOCATION_INTERVAL_MS.
+     */
+    void startLocationUpdates() {
+        if (mLocationUpdates) {
+            return;
+        }
+        LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                .setInterval(LOCATION_INTERVAL_MS)
+                .setFastestInterval(LOCATION_FASTEST_INTERVAL_MS)
+                .setSmallestDisplacement(mMinLocationDistanceM);
+        try {
+            mFusedLocationClient.requestLocationUpdates(request, mLocationCallback, mThread.getLooper());
+            mLocationUpdates = true;
+        } catch (SecurityException ex) {
+            Log.d(TAG, "startLocationUpdates() location permissions denied.");
+        }
+    }
+
+    /** Stops the periodic location updates. */
+    void stopLocationUpdates() {
+        if (!mLocationUpdates) {
+            return;
+        }
+        mLocationUpdates = false;
+        mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+    }
+
+    /** Stops the worker thread, after any pending work (including saving) is done. */
+    void quit() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // delayed messages are dropped when quitting, so save now.
+                if (mSavePending) {
+                    mHandler.removeCallbacks(mSave);
+                    mSave.run();
+                }
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    private void publish(FaceState state) {
+        mState.set(state);
+        mListener.onFaceStateChanged(state);
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (!mSavePending) {
+            mSavePending = true;
+            mHandler.postDelayed(mSave, SAVE_DELAY_MS);
+        }
+    }
+
+    /** The current local day, as days since 1970-01-01. */
+    private static long today() {
+        return epochDay(System.currentTimeMillis());
+    }
+
+    /** The local day of the given time, as days since 1970-01-01. */
+    private static long epochDay(long now) {
+        return Math.floorDiv(now + TimeZone.getDefault().getOffset(now), ONE_DAY_MS);
+    }
+
+    /**
+     * Moves the sun to a new location fix, if it is far enough away to make a visible difference.
+     * Otherwise nothing is published, so the face does not re-render its sun layer.
+     *
+     * The new sunrise/sunset is calculated directly, which is much cheaper than (re)building
+     * the table for the new position, and those exact times are what is published.
+     * So the check compares what the face shows now with what it would show next.
+     * (The table for the new position is built when the day next rolls over.)
+     */
+    private void updateLocation(Location location) {
+        double lat = location.getLatitude();
+        double lng = location.getLongitude();
+        if (!mLocationGate.isFarEnough(lat, lng)) {
+            return;
+        }
+        FaceState state = mState.get();
+        FaceState moved = calculateSun(state, lat, lng);
+        if (!LocationGate.sunShifted(state.sunHours(), moved.sunHours())) {
+            Log.d(TAG, "ignoring location " + lat + "," + lng + " (sun moves less than a minute)");
+            return;
+        }
+        Log.d(TAG, "new " + moved);
+        publish(moved);
+        mLocationGate.setPosition(lat, lng);
+    }
+
+    /**
+     * Gets today's sunrise/sunset from the table for this location.
+     * The table is only (re)built if we have moved to a new location.
+     */
+    private FaceState lookupSun(FaceState state, double lat, double lng) {
+        if (mSunTable == null || !mSunTable.covers(lat, lng)) {
+            mSunTable = SunTable.forLocation(lat, lng, mContext.getCacheDir());
+        }
+        mCalendar.setTimeZone(TimeZone.getDefault());
+        long now = System.currentTimeMillis();
+        mCalendar.setTimeInMillis(now);
+        int day = mCalendar.get(Calendar.DAY_OF_YEAR);
+        double offset = mCalendar.getTimeZone().getOffset(now) / (3600.0 * 1000.0);
+        float[] sunHours = new float[SunCalculator.TWILIGHT_RESULTS];
+        for (int i = 0; i < sunHours.length; i++) {
+            sunHours[i] = (float) SunCalculator.toLocalTime(mSunTable.time(day, i), offset);
+        }
+        return state.withSun(lat, lng, sunHours, epochDay(now));
+    }
+
+    /** Calculates sunrise/sunset and twilight directly, without reading or building a table. */
+    private static FaceState calculateSun(FaceState state, double lat, double lng) {
+        long now = System.currentTimeMillis();
+        int offsetMillis = TimeZone.getDefault().getOffset(now);
+        long epochDay = Math.floorDiv(now + offsetMillis, ONE_DAY_MS);
+        double[] result = new double[SunCalculator.TWILIGHT_RESULTS];
+        SunCalculator.calculateTwilight(epochDay, lat, lng, offsetMillis / (3600.0 * 1000.0), result);
+        float[] sunHours = new float[result.length];
+        for (int i = 0; i < result.length; i++) {
+            sunHours[i] = (float) result[i];
+        }
+        return state.withSun(lat, lng, sunHours, epochDay);
+    }
+
+    /**
+     * Builds the appointments to show, from the index.
+     *
+     * If READ_CALENDAR permissions are not turned on, no appointments are shown.
+     *
+     * @return the appointments, or null if they are not available.
+     */
+    private Appointments buildAppointments() {
+        if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.READ_CALENDAR)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "No READ_CALENDAR permission.");
+            mIndex.clear();
+            return null;
+        }
+        // String[] perms = {Manifest.permission.READ_CALENDAR};
+        // TODO: ?? ActivityCompat.requestPermissions(this, perms, 0);
+        mCalendar.setTimeZone(TimeZone.getDefault());
+        long now = System.currentTimeMillis();
+        long today = AppointmentIndex.startOfDay(now, mCalendar);
+        mIndex.retainDays(AppointmentIndex.addDays(today, -AppointmentIndex.DAYS_BEFORE, mCalendar),
+                AppointmentIndex.addDays(today, AppointmentIndex.DAYS_AFTER + 1, mCalendar));
+
+        long from = today;
+        long to = AppointmentIndex.addDays(today, 1, mCalendar);
+        if (!loadDays(from, to)) {
+            return null;
+        }
+        mHandler.removeCallbacks(mPrefetchDay);
+        mHandler.post(mPrefetchDay);
+        return mIndex.view(from, to, today, mCalendar.getTimeZone());
+    }
+
+    /**
+     * Makes sure that the index contains every day that overlaps the given time range.
+     *
+     * @return false if the calendar could not be read.
+     */
+    private boolean loadDays(long from, long to) {
+        for (long day = AppointmentIndex.startOfDay(from, mCalendar); day < to;
+             day = AppointmentIndex.addDays(day, 1, mCalendar)) {
+            if (!mIndex.hasDay(day)) {
+                AppointmentIndex.DaySlice slice = queryDay(day, AppointmentIndex.addDays(day, 1, mCalendar));
+                if (slice == null) {
+                    return false;
+                }
+                mIndex.putDay(slice);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the appointment instances for one day from the calendar.
+     *
+     * @param beginTime start of the day.
+     * @param endTime end of the day.
+     * @return all the instances that overlap that day, or null if the calendar is not available.
+     */
+    private AppointmentIndex.DaySlice queryDay(long beginTime, long endTime) {
+        AppointmentIndex.DaySlice slice = new AppointmentIndex.DaySlice(beginTime, endTime);
+        ContentResolver resolver = mContext.getContentResolver();
+        if (CalendarQueryService.queryInstances(resolver, beginTime, endTime, slice) < 0) {
+            return null;
+        }
+        return slice;
+    }
+}
@@ -0,0 +1,97 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Paint;
+
+/**
+ * The geometry of the static parts of the watchface: tick marks, hour numbers and logo.
+ *
+ * This is calculated once for each screen size (in onSurfaceChanged), so that drawing
+ * the face needs no trigonometry or text measuring.  Tick marks are stored as
+ * line endpoints (x0,y0,x1,y1,...) ready for Canvas.drawLines, grouped by paint and
+ * by quadrant, so each group can be drawn with one call (see TickGeometry).
+ *
+ * The arrays must not be modified.
+ */
+final class FaceLayout {
+    /** The hour numbers that are shown (every three hours). */
+    static final int NUMBER_STEP = TickGeometry.NUMBER_STEP;
+    static final int NUMBERS = TickGeometry.NUMBERS;
+
+    /** Number of 'quadrants' on the face (each is the three hours between two numbers). */
+    static final int QUADRANTS = NUMBERS;
+
+    /** Labels for the hour numbers, so that drawing them needs no string conversions. */
+    static final String[] NUMBER_LABELS = new String[NUMBERS];
+    static {
+        for (int i = 0; i < NUMBERS; i++) {
+            NUMBER_LABELS[i] = String.valueOf(i * NUMBER_STEP);
+        }
+    }
+
+    /** The ticks every three hours, which are always drawn (with the TICK1 paint). */
+    final float[] majorTicks;
+
+    /** The other hourly ticks, for each quadrant (with the TICK1 paint). */
+    final float[][] hourTicks = new float[QUADRANTS][];
+
+    /** The quarter-hour ticks, for each quadrant (with the TICK2 paint). */
+    final float[][] quarterTicks = new float[QUADRANTS][];
+
+    /** Left and baseline positions of each hour number, plus its measured width. */
+    final float[] numberX = new float[NUMBERS];
+    final float[] numberY = new float[NUMBERS];
+    final float[] numberWidth = new float[NUMBERS];
+
+    /** Left and baseline position of the logo. */
+    final float logoX;
+    final float logoY;
+
+    /**
+     * Calculates the layout for one screen size.
+     *
+     * @param width screen width in pixels.
+     * @param height screen height in pixels.
+     * @param numbersPaint the paint used for the hour numbers.
+     * @param logoPaint the paint used for the logo.
+     */
+    FaceLayout(int width, int height, Paint numbersPaint, Paint logoPaint) {
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        float majorTickLength = centerX * Be24WatchFace.MAJOR_TICK_LENGTH;
+        float minorTickLength = centerX * Be24WatchFace.MINOR_TICK_LENGTH;
+        float innerTickRadius = centerX - majorTickLength;
+        float outerTickRadius = centerX;
+        float textRadius = innerTickRadius - Be24WatchFace.NUMBERS_FONT_SIZE * 0.7f;
+
+        majorTicks = new float[NUMBERS * 4];
+        for (int q = 0; q < QUADRANTS; q++) {
+            hourTicks[q] = new float[(NUMBER_STEP - 1) * 4];
+            quarterTicks[q] = new float[NUMBER_STEP * 3 * 4];
+        }
+        TickGeometry.computeTicks(centerX, centerY, innerTickRadius, outerTickRadius,
+                innerTickRadius + minorTickLength, majorTicks, hourTicks, quarterTicks);
+
+        // each hour number is just inside its major tick.
+        for (int i = 0; i < NUMBERS; i++) {
+            double rot = Math.PI * 2 * i * NUMBER_STEP / 24;
+            float sin = (float) -Math.sin(rot);
+            float cos = (float) Math.cos(rot);
+            numberWidth[i] = numbersPaint.measureText(NUMBER_LABELS[i]);
+            numberX[i] = centerX + sin * textRadius - numberWidth[i] / 2f;
+            numberY[i] = centerY + cos * textRadius + Be24WatchFace.NUMBERS_FONT_SIZE / 2f;
+        }
+
+        logoX = centerX - logoPaint.measureText(Be24WatchFace.LOGO) / 2f;
+        logoY = centerY * Be24WatchFace.LOGO_POS_Y;
+    }
+
+    /**
+     * The quadrant that contains the given time.
+     *
+     * @param hours 0..24.0
+     * @return 0..QUADRANTS-1
+     */
+    static int quadrant(float hours) {
+        return ((int) hours) / NUMBER_STEP % QUADRANTS;
+    }
+}
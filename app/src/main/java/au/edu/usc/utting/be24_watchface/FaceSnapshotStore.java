@@ -0,0 +1,168 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Saves the last face state in a small binary file, so that the next engine can draw
+ * its first frame straight away, rather than starting from the default location
+ * with no appointments.
+ *
+ * The file holds the local day, hand style, location, twilight times and appointment
+ * arcs (about 50 bytes plus 13 bytes per arc).  It is read in one go at startup,
+ * and rewritten (via a temporary file) whenever the worker publishes new data.
+ */
+class FaceSnapshotStore {
+    private static final String TAG = FaceSnapshotStore.class.getSimpleName();
+
+    /** Identifies our file format ("BE2" + version number). */
+    static final int FILE_MAGIC = 0x42453201;
+
+    /** Files bigger than this are not ours. */
+    private static final int MAX_FILE_SIZE = 1 << 20;
+
+    /** The saved data. */
+    static final class Snapshot {
+        /** The local day (days since 1970-01-01) that the sun times and appointments are for. */
+        final long epochDay;
+        final int handStyle;
+        final FaceState state;
+
+        Snapshot(long epochDay, int handStyle, FaceState state) {
+            this.epochDay = epochDay;
+            this.handStyle = handStyle;
+            this.state = state;
+        }
+    }
+
+    private final File mFile;
+
+    /**
+     * @param dir where to keep the file (e.g. the app's files directory).
+     */
+    FaceSnapshotStore(File dir) {
+        mFile = new File(dir, "face_state.bin");
+    }
+
+    /**
+     * Reads the saved snapshot.
+     *
+     * @return the snapshot, or null if there is none (or it is unreadable).
+     */
+    Snapshot read() {
+        long length = mFile.length();
+        if (length <= 0 || length > MAX_FILE_SIZE) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) length];
+        try (FileInputStream in = new FileInputStream(mFile)) {
+            int pos = 0;
+            while (pos < bytes.length) {
+                int n = in.read(bytes, pos, bytes.length - pos);
+                if (n < 0) {
+                    throw new IOException("file is truncated");
+                }
+                pos += n;
+            }
+            return decode(bytes);
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot read " + mFile, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Saves a snapshot, replacing the previous one.
+     */
+    void write(Snapshot snapshot) {
+        // write to a temporary file first, so that a half-written snapshot is never read.
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(encode(snapshot));
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("cannot rename " + temp);
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot write " + mFile, ex);
+        }
+    }
+
+    static byte[] encode(Snapshot snapshot) {
+        FaceState state = snapshot.state;
+        float[] sunHours = state.sunHours();
+        Appointments appts = state.appointments;
+        int arcs = appts == null ? 0 : appts.size();
+        ByteBuffer buf = ByteBuffer.allocate(4 + 8 + 4 + 8 + 8 + 4 + 4 * sunHours.length + 4 + 13 * arcs);
+        buf.putInt(FILE_MAGIC);
+        buf.putLong(snapshot.epochDay);
+        buf.putInt(snapshot.handStyle);
+        buf.putDouble(state.latitude);
+        buf.putDouble(state.longitude);
+        buf.putInt(sunHours.length);
+        for (float hour : sunHours) {
+            buf.putFloat(hour);
+        }
+        // -1 means the appointments were not known yet.
+        buf.putInt(appts == null ? -1 : arcs);
+        for (int i = 0; i < arcs; i++) {
+            buf.putFloat(appts.startAngle(i));
+            buf.putFloat(appts.sweepAngle(i));
+            buf.putInt(appts.color(i));
+            buf.put((byte) (appts.isAllDay(i) ? 1 : 0));
+        }
+        return buf.array();
+    }
+
+    static Snapshot decode(byte[] bytes) throws IOException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.getInt() != FILE_MAGIC) {
+                throw new IOException("wrong format");
+            }
+            long epochDay = buf.getLong();
+            int handStyle = buf.getInt();
+            double lat = buf.getDouble();
+            double lng = buf.getDouble();
+            if (buf.getInt() != SunCalculator.TWILIGHT_RESULTS) {
+                throw new IOException("wrong number of sun times");
+            }
+            float[] sunHours = new float[SunCalculator.TWILIGHT_RESULTS];
+            for (int i = 0; i < sunHours.length; i++) {
+                sunHours[i] = buf.getFloat();
+            }
+            int arcs = buf.getInt();
+            Appointments appts = null;
+            if (arcs >= 0) {
+                if (arcs > buf.remaining() / 13) {
+                    throw new IOException("too many arcs");
+                }
+                float[] startAngles = new float[arcs];
+                float[] sweeps = new float[arcs];
+                int[] colors = new int[arcs];
+                BitSet allDay = new BitSet(arcs);
+                for (int i = 0; i < arcs; i++) {
+                    startAngles[i] = buf.getFloat();
+                    sweeps[i] = buf.getFloat();
+                    colors[i] = buf.getInt();
+                    allDay.set(i, buf.get() != 0);
+                }
+                appts = Appointments.fromArcs(startAngles, sweeps, colors, allDay);
+            }
+            if (buf.hasRemaining()) {
+                throw new IOException("unexpected data at end");
+            }
+            return new Snapshot(epochDay, handStyle, new FaceState(lat, lng, sunHours, epochDay, appts, epochDay, 0));
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("file is truncated", ex);
+        }
+    }
+}
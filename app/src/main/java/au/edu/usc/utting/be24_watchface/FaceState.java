@@ -0,0 +1,129 @@
+package au.edu.usc.utting.be24_watchface;
+
+import static au.edu.usc.utting.be24_watchface.Dial.angle;
+import static au.edu.usc.utting.be24_watchface.Dial.sweep;
+
+/**
+ * An immutable snapshot of the data shown on the watchface (apart from the time itself).
+ *
+ * Snapshots are built by FaceDataWorker on its background thread, and then
+ * swapped into the engine atomically.  So onDraw just reads whatever the latest
+ * snapshot is, and never has to wait for the calendar, location or sun calculations.
+ */
+final class FaceState {
+    /** Location used for the sunrise/sunset calculations. */
+    final double latitude;
+    final double longitude;
+
+    /**
+     * Sunrise and sunset times for today, in local hours (0..24).
+     * Near the poles, these may be SunCalculator.ALWAYS_UP or ALWAYS_DOWN.
+     */
+    final float sunriseHour;
+    final float sunsetHour;
+
+    /** Angle in degrees (0=east) where sunset happens. */
+    final float sunsetAngle;
+    /** Sweep angle of night duration. */
+    final float nightAngle;
+
+    /** Number of night-time bands: sunset..sunrise, then civil, nautical and astronomical. */
+    static final int BANDS = SunCalculator.TWILIGHT_RESULTS / 2;
+
+    /**
+     * Start angles of the night-time bands, from the lightest (sunset..sunrise)
+     * to the darkest (astronomical night).  These must not be modified.
+     */
+    final float[] bandAngles;
+    /** Sweep angles of the night-time bands (0 if that band does not happen today). */
+    final float[] bandSweeps;
+    /** Changes whenever any of the bands change, so that they can be cached. */
+    final long sunKey;
+
+    /** Today's appointments, or null if they are not available. */
+    final Appointments appointments;
+    /** Incremented each time the appointments are replaced. */
+    final int appointmentsVersion;
+
+    /** The local day (days since 1970-01-01) that the sun times were calculated for. */
+    final long sunDay;
+    /** The local day that the appointments were built for. */
+    final long appointmentsDay;
+
+    /** The local twilight times, as returned by SunCalculator.calculateTwilight. */
+    private final float[] mSunHours;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param latitude
+     * @param longitude
+     * @param sunHours SunCalculator.TWILIGHT_RESULTS local times (this array is kept).
+     * @param sunDay the local day that sunHours are for.
+     * @param appointments
+     * @param appointmentsDay the local day that the appointments are for.
+     * @param appointmentsVersion
+     */
+    FaceState(double latitude, double longitude, float[] sunHours, long sunDay,
+              Appointments appointments, long appointmentsDay, int appointmentsVersion) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        mSunHours = sunHours;
+        this.sunDay = sunDay;
+        this.appointmentsDay = appointmentsDay;
+        this.sunriseHour = sunHours[SunCalculator.HORIZON + SunCalculator.RISE];
+        this.sunsetHour = sunHours[SunCalculator.HORIZON + SunCalculator.SET];
+        bandAngles = new float[BANDS];
+        bandSweeps = new float[BANDS];
+        long key = 0;
+        for (int b = 0; b < BANDS; b++) {
+            float rise = sunHours[2 * b + SunCalculator.RISE];
+            float set = sunHours[2 * b + SunCalculator.SET];
+            if (Float.isInfinite(rise) || Float.isInfinite(set)) {
+                // the sun does not cross this zenith today, so the band is all day or not at all.
+                boolean allDay = rise == SunCalculator.ALWAYS_DOWN || set == SunCalculator.ALWAYS_DOWN;
+                bandAngles[b] = 0f;
+                bandSweeps[b] = allDay ? 360f : 0f;
+            } else {
+                bandAngles[b] = angle(set);
+                bandSweeps[b] = sweep(set, rise);
+            }
+            key = key * 31 + Float.floatToIntBits(bandAngles[b]);
+            key = key * 31 + Float.floatToIntBits(bandSweeps[b]);
+        }
+        this.sunsetAngle = bandAngles[0];
+        this.nightAngle = bandSweeps[0];
+        this.sunKey = key;
+        this.appointments = appointments;
+        this.appointmentsVersion = appointmentsVersion;
+    }
+
+    /** The local twilight times, as from SunCalculator.calculateTwilight.  This must not be modified. */
+    float[] sunHours() {
+        return mSunHours;
+    }
+
+    /**
+     * The local day that this whole snapshot is valid for.  If the sun times and the
+     * appointments were computed on different days, this is the earlier one.
+     */
+    long epochDay() {
+        return Math.min(sunDay, appointmentsDay);
+    }
+
+    /** A copy of this snapshot, with a new location and twilight times for the given day. */
+    FaceState withSun(double lat, double lng, float[] sunHours, long day) {
+        return new FaceState(lat, lng, sunHours, day, appointments, appointmentsDay, appointmentsVersion);
+    }
+
+    /** A copy of this snapshot, with new appointments for the given day. */
+    FaceState withAppointments(Appointments appts, long day) {
+        return new FaceState(latitude, longitude, mSunHours, sunDay, appts, day, appointmentsVersion + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lat,long=%.4f,%.4f sunrise/set=%.2f..%.2f (night=%.1f+=%.1f deg)",
+                latitude, longitude, sunriseHour, sunsetHour, sunsetAngle, nightAngle);
+    }
+}
@@ -0,0 +1,192 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Records how long each phase of drawing a frame takes.
+ *
+ * Each phase has a histogram with power-of-two buckets of nanoseconds, plus a count,
+ * total and maximum.  All the arrays are allocated up front, and recording is just
+ * System.nanoTime() and a few array updates, so the profiler can be left on all the time.
+ *
+ * Typical use, where each record(...) returns the time that the next phase starts:
+ * <pre>
+ *     long t = profiler.start();
+ *     ... prepare ...
+ *     t = profiler.record(FrameProfiler.PREPARE, t);
+ *     ... draw the hand ...
+ *     t = profiler.record(FrameProfiler.HAND, t);
+ * </pre>
+ *
+ * Like the rest of the engine, this should only be used from the UI thread.
+ */
+class FrameProfiler {
+    /** Reading the time and snapshot, including requesting new appointments each day. */
+    static final int PREPARE = 0;
+    /** Re-rendering each cached layer (only recorded when that layer changes). */
+    static final int BACKGROUND = 1;
+    static final int SUN = 2;
+    static final int FACE = 3;
+    static final int APPOINTMENTS = 4;
+    /** Blitting the cached layers (or the ambient frame), including any re-rendering. */
+    static final int LAYERS = 5;
+    static final int HAND = 6;
+    /** The whole frame. */
+    static final int FRAME = 7;
+    /** From the update timer firing until the frame has been drawn. */
+    static final int WAKE_TO_DRAW = 8;
+    static final int PHASES = 9;
+
+    static final String[] PHASE_NAMES = {
+            "prepare", "background", "sun", "face", "appointments",
+            "layers", "hand", "frame", "wake-to-draw"
+    };
+
+    /** Bucket b counts durations in [2^b, 2^(b+1)) nanoseconds; the last is open-ended. */
+    static final int BUCKETS = 32;
+
+    private final long[][] mHistograms = new long[PHASES][BUCKETS];
+    private final long[] mCounts = new long[PHASES];
+    private final long[] mTotals = new long[PHASES];
+    private final long[] mMax = new long[PHASES];
+
+    /** When the update timer last fired, or 0 if the frame has been drawn since then. */
+    private long mWakeNanos;
+
+    /** @return the current time, to pass to record(...). */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one phase that started at the given time and has just finished.
+     *
+     * @param phase one of the phase constants.
+     * @param startNanos from start() or the previous record(...).
+     * @return the current time, which is the start of the next phase.
+     */
+    long record(int phase, long startNanos) {
+        long now = System.nanoTime();
+        add(phase, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Adds one duration to the histogram of a phase.
+     *
+     * @param phase one of the phase constants.
+     * @param nanos the duration.
+     */
+    void add(int phase, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mHistograms[phase][bucket(nanos)]++;
+        mCounts[phase]++;
+        mTotals[phase] += nanos;
+        if (nanos > mMax[phase]) {
+            mMax[phase] = nanos;
+        }
+    }
+
+    /** Notes that the update timer has fired, and a frame should follow. */
+    void wake() {
+        mWakeNanos = System.nanoTime();
+    }
+
+    /** Records the wake-to-draw latency, if the timer has fired since the last frame. */
+    void drawn() {
+        if (mWakeNanos != 0) {
+            record(WAKE_TO_DRAW, mWakeNanos);
+            mWakeNanos = 0;
+        }
+    }
+
+    /** The histogram bucket for a duration. */
+    static int bucket(long nanos) {
+        int b = 63 - Long.numberOfLeadingZeros(nanos);
+        return Math.max(0, Math.min(BUCKETS - 1, b));
+    }
+
+    long getCount(int phase) {
+        return mCounts[phase];
+    }
+
+    long getBucketCount(int phase, int bucket) {
+        return mHistograms[phase][bucket];
+    }
+
+    /**
+     * An upper bound on the given percentile of a phase, from its histogram.
+     *
+     * @param phase one of the phase constants.
+     * @param percent 0..100.
+     * @return nanoseconds (the top of the bucket), or 0 if nothing was recorded.
+     */
+    long percentile(int phase, double percent) {
+        long count = mCounts[phase];
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percent / 100.0);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += mHistograms[phase][b];
+            if (seen >= Math.max(1, target)) {
+                return b == BUCKETS - 1 ? mMax[phase] : Math.min(mMax[phase], (1L << (b + 1)) - 1);
+            }
+        }
+        return mMax[phase];
+    }
+
+    /** Forgets everything recorded so far. */
+    void reset() {
+        for (int p = 0; p < PHASES; p++) {
+            Arrays.fill(mHistograms[p], 0L);
+            mCounts[p] = 0;
+            mTotals[p] = 0;
+            mMax[p] = 0;
+        }
+        mWakeNanos = 0;
+    }
+
+    /**
+     * Writes a summary of each phase (in microseconds), followed by its non-empty buckets.
+     * This allocates, so it should only be called on request (e.g. from dumpsys).
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Frame phases (us): count mean p50 p90 p99 max");
+        for (int p = 0; p < PHASES; p++) {
+            long count = mCounts[p];
+            writer.printf("  %-13s %7d %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                    PHASE_NAMES[p], count,
+                    count == 0 ? 0.0 : mTotals[p] / 1000.0 / count,
+                    percentile(p, 50) / 1000.0, percentile(p, 90) / 1000.0,
+                    percentile(p, 99) / 1000.0, mMax[p] / 1000.0);
+            if (count > 0) {
+                StringBuilder buckets = new StringBuilder("    buckets:");
+                for (int b = 0; b < BUCKETS; b++) {
+                    if (mHistograms[p][b] > 0) {
+                        buckets.append(" <").append(formatNanos(1L << (b + 1)))
+                                .append('=').append(mHistograms[p][b]);
+                    }
+                }
+                writer.println(buckets);
+            }
+        }
+        writer.flush();
+    }
+
+    /** Short human-readable form of a duration, e.g. 512ns, 33us, 2ms. */
+    static String formatNanos(long nanos) {
+        if (nanos < 1000) {
+            return nanos + "ns";
+        } else if (nanos < 1000_000) {
+            return nanos / 1000 + "us";
+        } else if (nanos < 1000_000_000) {
+            return nanos / 1000_000 + "ms";
+        }
+        return nanos / 1000_000_000 + "s";
+    }
+}
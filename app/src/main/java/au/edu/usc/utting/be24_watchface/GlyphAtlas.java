@@ -0,0 +1,142 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pre-rendered text for the watchface.
+ *
+ * The digits 0..9, plus any other strings that are added (e.g. the logo), are drawn once
+ * into one bitmap, using their own paints.  After that, drawing a number or a string is
+ * just one bitmap blit per glyph, without any text layout or measuring.
+ *
+ * The glyphs keep the color, alpha and anti-aliasing of the paints at the time that the
+ * atlas was built, so the engine keeps one atlas for each mode (ambient, mute etc.).
+ */
+class GlyphAtlas {
+    private static final String[] DIGITS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+    /** Pixels of space around each glyph, in case the text overhangs its width. */
+    private static final int PADDING = 2;
+
+    private final List<String> mTexts = new ArrayList<>();
+    private final List<Paint> mPaints = new ArrayList<>();
+
+    /** Source rectangles (including padding) in mBitmap. */
+    private Rect[] mSrc;
+    /** Advance width of each entry, as from measureText. */
+    private float[] mWidths;
+    /** Distance from the top of each source rectangle down to the baseline. */
+    private int[] mBaselines;
+    private Bitmap mBitmap;
+
+    /** Reused for each blit. */
+    private final Rect mDst = new Rect();
+
+    /**
+     * Create an atlas containing the digits.
+     *
+     * @param digitPaint the paint used for the digits (e.g. the hour numbers).
+     */
+    GlyphAtlas(Paint digitPaint) {
+        for (String digit : DIGITS) {
+            add(digit, digitPaint);
+        }
+    }
+
+    /**
+     * Adds another string to the atlas.  This must be called before anything is drawn.
+     *
+     * @param text the string.
+     * @param paint the paint to draw it with.
+     * @return the index of this string, for drawText.
+     */
+    int add(String text, Paint paint) {
+        if (mBitmap != null) {
+            throw new IllegalStateException("atlas is already built");
+        }
+        mTexts.add(text);
+        mPaints.add(new Paint(paint));
+        return mTexts.size() - 1;
+    }
+
+    /** Renders all the strings into the atlas bitmap. */
+    private void build() {
+        int n = mTexts.size();
+        mSrc = new Rect[n];
+        mWidths = new float[n];
+        mBaselines = new int[n];
+        int totalWidth = 0;
+        int maxHeight = 0;
+        for (int i = 0; i < n; i++) {
+            Paint paint = mPaints.get(i);
+            mWidths[i] = paint.measureText(mTexts.get(i));
+            mBaselines[i] = (int) Math.ceil(-paint.ascent()) + PADDING;
+            int width = (int) Math.ceil(mWidths[i]) + 2 * PADDING;
+            int height = mBaselines[i] + (int) Math.ceil(paint.descent()) + PADDING;
+            mSrc[i] = new Rect(totalWidth, 0, totalWidth + width, height);
+            totalWidth += width;
+            maxHeight = Math.max(maxHeight, height);
+        }
+        mBitmap = Bitmap.createBitmap(Math.max(totalWidth, 1), Math.max(maxHeight, 1),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < n; i++) {
+            canvas.drawText(mTexts.get(i), mSrc[i].left + PADDING, mBaselines[i], mPaints.get(i));
+        }
+    }
+
+    /** The advance width of one string (or digit). */
+    float width(int index) {
+        if (mBitmap == null) {
+            build();
+        }
+        return mWidths[index];
+    }
+
+    /**
+     * Draws one of the strings, like Canvas.drawText.
+     *
+     * @param canvas
+     * @param index the index returned by add(...), or a digit 0..9.
+     * @param x left edge of the text.
+     * @param y baseline of the text.
+     * @return the x position after the text.
+     */
+    float drawText(Canvas canvas, int index, float x, float y) {
+        if (mBitmap == null) {
+            build();
+        }
+        Rect src = mSrc[index];
+        int left = Math.round(x) - PADDING;
+        int top = Math.round(y) - mBaselines[index];
+        mDst.set(left, top, left + src.right - src.left, top + src.bottom - src.top);
+        canvas.drawBitmap(mBitmap, src, mDst, null);
+        return x + mWidths[index];
+    }
+
+    /**
+     * Draws a non-negative number, one digit at a time.
+     *
+     * @param canvas
+     * @param number 0 or more.
+     * @param x left edge of the number.
+     * @param y baseline of the number.
+     * @return the x position after the number.
+     */
+    float drawNumber(Canvas canvas, int number, float x, float y) {
+        int divisor = 1;
+        while (number / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            x = drawText(canvas, number / divisor % 10, x, y);
+        }
+        return x;
+    }
+}
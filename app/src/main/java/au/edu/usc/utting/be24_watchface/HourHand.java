@@ -1,8 +1,12 @@
 package au.edu.usc.utting.be24_watchface;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 
 
 import static au.edu.usc.utting.be24_watchface.Be24WatchFace.angle;
@@ -13,6 +17,12 @@ import static au.edu.usc.utting.be24_watchface.Be24WatchFace.angle;
  * This default implementation draws a very simple narrow line for the hand.
  * It also has a little circle at the rotation point, filled with the highlight color.
  *
+ * Each hand is drawn (by drawShape) just once for each set of paints, into a small
+ * sprite bitmap pointing east.  Then each frame just draws that sprite, rotated
+ * to the current time, which is much cheaper than filling and stroking paths.
+ * Subclasses should override drawShape and getShapeBounds, and onGeometryChanged
+ * if they need to recalculate anything (e.g. paths) when the size changes.
+ *
  * Note that setGeometry(...) must be called before the hand is drawn.
  */
 class HourHand {
@@ -20,6 +30,9 @@ class HourHand {
     static final float HOUR_STROKE_WIDTH = 4f;
     private static final float CENTER_GAP_AND_CIRCLE_RADIUS = HOUR_STROKE_WIDTH * 2;
 
+    /** Extra transparent pixels around each sprite, for anti-aliasing and filtering. */
+    private static final int SPRITE_MARGIN = 2;
+
     protected float mCenterX;
     protected float mCenterY;
 
@@ -29,6 +42,21 @@ class HourHand {
      */
     protected float mHourHandLength;
 
+    /** The paints that the sprites are pre-rendered with (may be null). */
+    private Paint[] mNormal;
+    private Paint[] mAmbient;
+
+    /** Pre-rendered images of the hand pointing east, for normal [0] and ambient [1] mode. */
+    private final Bitmap[] mSprites = new Bitmap[2];
+    /** The HAND1 and HAND2 colors that each sprite was rendered with. */
+    private final long[] mSpriteKeys = new long[2];
+    /** Position of the centre of rotation within the sprites. */
+    private float mPivotX;
+    private float mPivotY;
+
+    private final RectF mBounds = new RectF();
+    private final Matrix mMatrix = new Matrix();
+    private final Paint mFilterPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
 
     public HourHand() {
 
@@ -38,6 +66,19 @@ class HourHand {
         // customise our paint objects as necessary
         normal[Be24WatchFace.HAND1].setStrokeCap(Paint.Cap.ROUND);
         ambient[Be24WatchFace.HAND1].setStrokeCap(Paint.Cap.ROUND);
+        setPaints(normal, ambient);
+    }
+
+    /**
+     * Sets the paints that will usually be used, so that the sprites can be
+     * pre-rendered in setGeometry, rather than when the hand is first drawn.
+     *
+     * @param normal
+     * @param ambient
+     */
+    protected void setPaints(Paint[] normal, Paint[] ambient) {
+        mNormal = normal;
+        mAmbient = ambient;
     }
 
     /**
@@ -49,31 +90,42 @@ class HourHand {
      * @param centerY
      * @param radius requested length of the hand.
      */
-    public void setGeometry(float centerX, float centerY, float radius) {
+    public final void setGeometry(float centerX, float centerY, float radius) {
         mCenterX = centerX;
         mCenterY = centerY;
         mHourHandLength = radius;
+        onGeometryChanged();
+        mSprites[0] = null;
+        mSprites[1] = null;
+        if (mNormal != null && radius > 0) {
+            getSprite(mNormal, false);
+            getSprite(mAmbient, true);
+        }
+    }
+
+    /** Called when the centre or length of the hand changes, to recalculate paths etc. */
+    protected void onGeometryChanged() {
     }
 
     /**
-     * This is the main drawing method that draws the watch hand.
+     * Gets the area covered by the hand, when it is pointing east.
      *
-     * One easy way of doing this is to always draw the hand to the east,
-     * but to rotate the canvas by Be24WatchFace.angle(hours) before drawing,
-     * (and restore the canvas afterwards of course).
+     * @param bounds set to the bounds, relative to the centre of rotation.
+     */
+    protected void getShapeBounds(RectF bounds) {
+        float halfWidth = CENTER_GAP_AND_CIRCLE_RADIUS + HOUR_STROKE_WIDTH;
+        bounds.set(-CENTER_GAP_AND_CIRCLE_RADIUS * 1.5f - HOUR_STROKE_WIDTH, -halfWidth,
+                mHourHandLength + HOUR_STROKE_WIDTH, halfWidth);
+    }
+
+    /**
+     * Draws the hand pointing east (towards 6am), rotating around (mCenterX, mCenterY).
      *
      * @param canvas
-     * @param hours current time in hours: 0.00 .. 23.9999.
      * @param paint the set of paints to use (may be normal or ambient)
      * @param ambient true means draw for ambient mode.
      */
-    public void drawHand(Canvas canvas, float hours, Paint[] paint, boolean ambient) {
-
-        /* Save the canvas state before we can begin to rotate it. */
-        canvas.save();
-        final float hoursRotation = angle(hours);
-        canvas.rotate(hoursRotation, mCenterX, mCenterY);
-
+    protected void drawShape(Canvas canvas, Paint[] paint, boolean ambient) {
         canvas.drawLine(
                 mCenterX - CENTER_GAP_AND_CIRCLE_RADIUS * 1.5f,
                 mCenterY,
@@ -92,7 +144,82 @@ class HourHand {
                 mCenterY,
                 CENTER_GAP_AND_CIRCLE_RADIUS,
                 paint[Be24WatchFace.HAND1]);
+    }
+
+    /**
+     * Gets the sprite for the given paints, rendering it if the paints have changed.
+     */
+    private Bitmap getSprite(Paint[] paint, boolean ambient) {
+        int mode = ambient ? 1 : 0;
+        long key = ((long) paint[Be24WatchFace.HAND1].getColor() << 32)
+                | (paint[Be24WatchFace.HAND2].getColor() & 0xFFFFFFFFL);
+        if (mSprites[mode] == null || mSpriteKeys[mode] != key) {
+            getShapeBounds(mBounds);
+            int width = (int) Math.ceil(mBounds.right - mBounds.left) + 2 * SPRITE_MARGIN;
+            int height = (int) Math.ceil(mBounds.bottom - mBounds.top) + 2 * SPRITE_MARGIN;
+            if (mSprites[mode] == null) {
+                mSprites[mode] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                mSprites[mode].eraseColor(Color.TRANSPARENT);
+            }
+            mPivotX = SPRITE_MARGIN - mBounds.left;
+            mPivotY = SPRITE_MARGIN - mBounds.top;
+            Canvas canvas = new Canvas(mSprites[mode]);
+            canvas.translate(mPivotX - mCenterX, mPivotY - mCenterY);
+            drawShape(canvas, paint, ambient);
+            mSpriteKeys[mode] = key;
+        }
+        return mSprites[mode];
+    }
 
+    /**
+     * This is the main drawing method that draws the watch hand.
+     *
+     * This draws the pre-rendered sprite, rotated by Be24WatchFace.angle(hours).
+     *
+     * @param canvas
+     * @param hours current time in hours: 0.00 .. 23.9999.
+     * @param paint the set of paints to use (may be normal or ambient)
+     * @param ambient true means draw for ambient mode.
+     */
+    public void drawHand(Canvas canvas, float hours, Paint[] paint, boolean ambient) {
+        Bitmap sprite = getSprite(paint, ambient);
+        mMatrix.setTranslate(mCenterX - mPivotX, mCenterY - mPivotY);
+        mMatrix.postRotate(angle(hours), mCenterX, mCenterY);
+        // no filtering in ambient mode, since that may be low-bit.
+        canvas.drawBitmap(sprite, mMatrix, ambient ? null : mFilterPaint);
+    }
+
+    /**
+     * Gets the screen area that drawHand touches at a given time.
+     *
+     * @param hours current time in hours: 0.00 .. 23.9999.
+     * @param bounds set to the area, in pixels (including the centre pin).
+     */
+    public void getHandBounds(float hours, Rect bounds) {
+        getShapeBounds(mBounds);
+        mBounds.offset(mCenterX, mCenterY);
+        mMatrix.setRotate(angle(hours), mCenterX, mCenterY);
+        mMatrix.mapRect(mBounds);
+        mBounds.roundOut(bounds);
+        // allow for the sprite margin, and for filtering spreading into neighbouring pixels.
+        bounds.inset(-SPRITE_MARGIN - 1, -SPRITE_MARGIN - 1);
+    }
+
+    /**
+     * Draws the hand directly with paths, without using the sprite.
+     * This is slower than drawHand, but is useful for checking the sprites.
+     *
+     * @param canvas
+     * @param hours current time in hours: 0.00 .. 23.9999.
+     * @param paint the set of paints to use (may be normal or ambient)
+     * @param ambient true means draw for ambient mode.
+     */
+    public void drawHandDirect(Canvas canvas, float hours, Paint[] paint, boolean ambient) {
+        /* Save the canvas state before we can begin to rotate it. */
+        canvas.save();
+        canvas.rotate(angle(hours), mCenterX, mCenterY);
+        drawShape(canvas, paint, ambient);
         /* Restore the canvas' original orientation. */
         canvas.restore();
     }
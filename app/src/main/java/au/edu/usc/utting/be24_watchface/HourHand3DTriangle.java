@@ -4,6 +4,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.RectF;
 
 /**
  * Draws a triangle hand with two bevels, whose colors are taken from a photo of the
@@ -29,12 +30,11 @@ public class HourHand3DTriangle extends HourHand {
      * @param ambient
      */
     public HourHand3DTriangle(Paint[] normal, Paint[] ambient) {
+        setPaints(normal, ambient);
     }
 
     @Override
-    public void setGeometry(float width, float height, float handLen) {
-        super.setGeometry(width, height, handLen);
-
+    protected void onGeometryChanged() {
         // create hand path
         float startX = mCenterX - TRIANGLE_WIDTH / 2f;
         float stopX = mCenterX + mHourHandLength;
@@ -73,22 +73,23 @@ public class HourHand3DTriangle extends HourHand {
 
 
     @Override
-    public void drawHand(Canvas canvas, float hours, Paint[] paint, boolean ambient) {
-
-        canvas.save();
-        final float hoursRotation = Be24WatchFace.angle(hours);
-        canvas.rotate(hoursRotation, mCenterX, mCenterY);
+    protected void getShapeBounds(RectF bounds) {
+        float offsetY = TRIANGLE_WIDTH / 2f;
+        bounds.set(-offsetY - 1, -offsetY - 1, mHourHandLength + 1, offsetY + 1);
+    }
 
-        // 3D triangular hand with different colored sides
-        Paint p = paint[Be24WatchFace.HAND2];
-        int oldColor = p.getColor();
+    @Override
+    protected void drawShape(Canvas canvas, Paint[] paint, boolean ambient) {
+        // 3D triangular hand with different colored sides.
+        // This is only done when the sprite is rendered, so we can use a copy of the paint
+        // rather than changing its color and then restoring it.
+        Paint p = new Paint(paint[Be24WatchFace.HAND2]);
         p.setColor(BRIGHT_SIDE);
         canvas.drawPath(mBotPath, p);
         p.setColor(DARK_SIDE);
         canvas.drawPath(mTopPath, p);
         p.setColor(DARK_END);
         canvas.drawPath(mEndPath, p);
-        p.setColor(oldColor);
 
         // and a little circle in the centre to look like a pin
         // (Disabled, since the join of the three sides is now the centre)
@@ -97,7 +98,5 @@ public class HourHand3DTriangle extends HourHand {
         // Add this line if you want a filled centre.
         // canvas.drawCircle(mCenterX, mCenterY, TRIANGLE_WIDTH - HOUR_STROKE_WIDTH, mHandInnerPaint);
         // canvas.drawCircle(mCenterX, mCenterY, TRIANGLE_WIDTH, mHandPaint);
-
-        canvas.restore();
     }
 }
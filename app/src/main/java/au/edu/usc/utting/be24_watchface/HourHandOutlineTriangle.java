@@ -3,6 +3,7 @@ package au.edu.usc.utting.be24_watchface;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.RectF;
 
 /**
  * Draws a triangular hour hand with an outline, filled with a highlight color.
@@ -14,12 +15,11 @@ public class HourHandOutlineTriangle extends HourHand {
     private Path mHandPath;
 
     public HourHandOutlineTriangle(Paint[] normal, Paint[] ambient) {
+        setPaints(normal, ambient);
     }
 
     @Override
-    public void setGeometry(float width, float height, float handLen) {
-        super.setGeometry(width, height, handLen);
-
+    protected void onGeometryChanged() {
         // create hand path
         float startX = mCenterX - TRIANGLE_WIDTH * 3f;
         float stopX = mCenterX + mHourHandLength;
@@ -36,12 +36,15 @@ public class HourHandOutlineTriangle extends HourHand {
     }
 
     @Override
-    public void drawHand(Canvas canvas, float hours, Paint[] paint, boolean ambient) {
-
-        canvas.save();
-        final float hoursRotation = Be24WatchFace.angle(hours);
-        canvas.rotate(hoursRotation, mCenterX, mCenterY);
+    protected void getShapeBounds(RectF bounds) {
+        // the stroke can stick out past the sharp corners, so allow plenty of room.
+        float margin = HOUR_STROKE_WIDTH * 2;
+        bounds.set(-TRIANGLE_WIDTH * 3f - margin, -TRIANGLE_WIDTH - margin,
+                mHourHandLength + margin, TRIANGLE_WIDTH + margin);
+    }
 
+    @Override
+    protected void drawShape(Canvas canvas, Paint[] paint, boolean ambient) {
         // triangular hand with different colored centre
         canvas.drawPath(mHandPath, paint[Be24WatchFace.HAND2]);
         canvas.drawPath(mHandPath, paint[Be24WatchFace.HAND1]);
@@ -50,8 +53,6 @@ public class HourHandOutlineTriangle extends HourHand {
         // Add this line if you want a filled centre.
         canvas.drawCircle(mCenterX, mCenterY, TRIANGLE_WIDTH, paint[Be24WatchFace.HAND2]);
         canvas.drawCircle(mCenterX, mCenterY, TRIANGLE_WIDTH, paint[Be24WatchFace.HAND1]);
-
-        canvas.restore();
     }
 
 }
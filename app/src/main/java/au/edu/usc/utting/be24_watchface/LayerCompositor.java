@@ -0,0 +1,147 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+/**
+ * Caches the static parts of the watchface in offscreen bitmaps.
+ *
+ * The face is drawn as a stack of layers (background, sun pie, ticks, appointments...),
+ * from the bottom up.  Each layer has an invalidation key, which should summarise
+ * everything that the layer depends upon (sunset angle, current quadrant, mute mode, etc.).
+ * A layer is re-rendered only when its key changes, and the layers are re-composited
+ * only when at least one of them was re-rendered.  So most frames are just one
+ * bitmap blit, plus whatever is drawn on top (e.g. the hour hand).
+ *
+ * Note that setSize(...) must be called before any caching is done.
+ * Until then, all the layers are drawn directly onto the canvas.
+ */
+class LayerCompositor {
+
+    /** Draws one layer of the watchface. */
+    interface Layer {
+        /**
+         * Draw this layer onto a transparent canvas.
+         *
+         * @param canvas the offscreen bitmap canvas for this layer.
+         */
+        void drawLayer(Canvas canvas);
+    }
+
+    private final Layer[] mLayers;
+    private final long[] mKeys;
+    private final boolean[] mDirty;
+    private final Bitmap[] mBitmaps;
+
+    /** All the layers, merged together. */
+    private Bitmap mComposite;
+    private boolean mCompositeDirty = true;
+
+    /** Reused for drawing into the offscreen bitmaps. */
+    private final Canvas mOffscreen = new Canvas();
+
+    /**
+     * Create a compositor for the given layers.
+     *
+     * @param layers the layers, from bottom to top.
+     */
+    LayerCompositor(Layer... layers) {
+        mLayers = layers;
+        mKeys = new long[layers.length];
+        mDirty = new boolean[layers.length];
+        mBitmaps = new Bitmap[layers.length];
+        invalidateAll();
+    }
+
+    /**
+     * (Re)allocates the offscreen bitmaps to match the size of the screen.
+     *
+     * @param width screen width in pixels.
+     * @param height screen height in pixels.
+     */
+    void setSize(int width, int height) {
+        if (mComposite != null
+                && mComposite.getWidth() == width && mComposite.getHeight() == height) {
+            return;
+        }
+        for (int i = 0; i < mLayers.length; i++) {
+            mBitmaps[i] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        mComposite = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        invalidateAll();
+    }
+
+    /**
+     * Sets the invalidation key of one layer.
+     * The layer will be re-rendered at the next draw only if this key has changed.
+     *
+     * @param layer index of the layer, as passed to the constructor.
+     * @param key a value that changes whenever the appearance of the layer changes.
+     */
+    void setKey(int layer, long key) {
+        if (mKeys[layer] != key) {
+            mKeys[layer] = key;
+            mDirty[layer] = true;
+        }
+    }
+
+    /**
+     * True if the next draw will need to re-render or re-composite any layers.
+     * This is also true until setSize has been called.
+     */
+    boolean isDirty() {
+        if (mComposite == null || mCompositeDirty) {
+            return true;
+        }
+        for (boolean dirty : mDirty) {
+            if (dirty) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Forces all layers to be re-rendered at the next draw. */
+    void invalidateAll() {
+        for (int i = 0; i < mLayers.length; i++) {
+            mDirty[i] = true;
+        }
+        mCompositeDirty = true;
+    }
+
+    /**
+     * Re-renders any dirty layers, then draws all the layers onto the given canvas.
+     *
+     * @param canvas
+     */
+    void draw(Canvas canvas) {
+        if (mComposite == null) {
+            // size not known yet, so no caching.
+            for (Layer layer : mLayers) {
+                layer.drawLayer(canvas);
+            }
+            return;
+        }
+        for (int i = 0; i < mLayers.length; i++) {
+            if (mDirty[i]) {
+                mBitmaps[i].eraseColor(Color.TRANSPARENT);
+                mOffscreen.setBitmap(mBitmaps[i]);
+                mLayers[i].drawLayer(mOffscreen);
+                mDirty[i] = false;
+                mCompositeDirty = true;
+            }
+        }
+        if (mCompositeDirty) {
+            // layers may be translucent (e.g. in mute mode), so we start from black.
+            mComposite.eraseColor(Color.BLACK);
+            mOffscreen.setBitmap(mComposite);
+            for (Bitmap bitmap : mBitmaps) {
+                mOffscreen.drawBitmap(bitmap, 0f, 0f, null);
+            }
+            mCompositeDirty = false;
+        }
+        mOffscreen.setBitmap(null);
+        canvas.drawBitmap(mComposite, 0f, 0f, null);
+    }
+}
@@ -0,0 +1,84 @@
+package au.edu.usc.utting.be24_watchface;
+
+/**
+ * Decides whether a new location fix is worth recalculating sunrise/sunset for.
+ *
+ * Location updates arrive whether or not the watch has moved, so a fix is ignored if
+ * it is within a given distance of the position that the sun times were last calculated
+ * for.  Even when it is further away, the new sun times are only used if at least
+ * one of them has moved by a minute or more (which is the resolution of the face).
+ *
+ * This is only used on the worker thread.
+ */
+class LocationGate {
+    /** Mean radius of the earth, in metres. */
+    static final double EARTH_RADIUS_M = 6371000.0;
+
+    /** Sun times must move by at least this much (in hours) to be worth redrawing. */
+    static final float MIN_SUN_SHIFT_HOURS = 1f / 60f;
+
+    private final double mMinDistance;
+
+    private boolean mHasPosition;
+    private double mLatitude;
+    private double mLongitude;
+
+    /**
+     * @param minDistanceMetres fixes closer than this to the last used position are ignored.
+     */
+    LocationGate(double minDistanceMetres) {
+        mMinDistance = minDistanceMetres;
+    }
+
+    /** Records the position that the current sun times were calculated for. */
+    void setPosition(double lat, double lng) {
+        mHasPosition = true;
+        mLatitude = lat;
+        mLongitude = lng;
+    }
+
+    /** True if the given position is far enough from the last used one to be checked. */
+    boolean isFarEnough(double lat, double lng) {
+        return !mHasPosition || distance(mLatitude, mLongitude, lat, lng) >= mMinDistance;
+    }
+
+    /**
+     * Great-circle distance between two positions (haversine formula).
+     *
+     * @return metres.
+     */
+    static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLng = Math.sin(dLng / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * True if any of the twilight times has moved by at least a minute.
+     *
+     * @param before local times, as from SunCalculator.calculateTwilight.
+     * @param after the same times for the new position.
+     */
+    static boolean sunShifted(float[] before, float[] after) {
+        for (int i = 0; i < before.length; i++) {
+            float a = before[i];
+            float b = after[i];
+            if (Float.isInfinite(a) || Float.isInfinite(b)) {
+                if (a != b) {
+                    return true;
+                }
+            } else {
+                // times are 0..24, so 23:59 and 00:01 are only two minutes apart.
+                float diff = Math.abs(a - b) % 24f;
+                if (Math.min(diff, 24f - diff) >= MIN_SUN_SHIFT_HOURS) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
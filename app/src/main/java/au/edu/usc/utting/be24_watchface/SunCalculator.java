@@ -1,17 +1,50 @@
 package au.edu.usc.utting.be24_watchface;
 
 
-import android.util.Log;
-
 import java.util.Calendar;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Calculates sunrise and sunset times.
  *
+ * The static methods are stateless and do not allocate any objects,
+ * so they are cheap enough to call from the drawing and table-building code.
+ * The results are returned in a caller-supplied array, at indexes RISE and SET.
  */
 public class SunCalculator {
-    private static final String TAG = "SunCalculator";
+    /** Returned instead of a time, when the sun stays above the horizon all day (polar day). */
+    static final double ALWAYS_UP = Double.POSITIVE_INFINITY;
+    /** Returned instead of a time, when the sun stays below the horizon all day (polar night). */
+    static final double ALWAYS_DOWN = Double.NEGATIVE_INFINITY;
+
+    /** Index of the sunrise time in the result arrays. */
+    static final int RISE = 0;
+    /** Index of the sunset time in the result arrays. */
+    static final int SET = 1;
+
+    // Offsets of each pair of events in the twilight results (add RISE or SET to these).
+    static final int HORIZON = 0;      // sunrise/sunset (zenith 90.833 degrees)
+    static final int CIVIL = 2;        // civil dawn/dusk (zenith 96 degrees)
+    static final int NAUTICAL = 4;     // nautical dawn/dusk (zenith 102 degrees)
+    static final int ASTRONOMICAL = 6; // astronomical dawn/dusk (zenith 108 degrees)
+
+    /** Number of results from calculateTwilight. */
+    static final int TWILIGHT_RESULTS = 8;
+
+    /** Batches smaller than this are calculated on the calling thread. */
+    static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final double D2R = Math.PI / 180;
+    private static final double R2D = 180 / Math.PI;
+    private static final double[] COS_ZENITH = {
+            Math.cos(90.83333333333333 * D2R),
+            Math.cos(96 * D2R),
+            Math.cos(102 * D2R),
+            Math.cos(108 * D2R)
+    };
 
+    private final double[] mResult = new double[2];
     private float mSunRise;
     private float mSunSet;
 
@@ -20,27 +53,126 @@ public class SunCalculator {
      *
      */
     public void calculateSunRiseSet(double lat, double lng, Calendar cal) {
-        // System.out.println("date=" + cal.getTime().toString() + " timezone=" + cal.getTimeZone());
-        mSunRise = (float) getLocalTime(lat, lng, cal, true);
-        mSunSet = (float) getLocalTime(lat, lng, cal, false);
-        Log.i(TAG, String.format("Alg 2: sunrise=%.2f              sunset=%.2f\n", mSunRise, mSunSet));
+        //convert UT value to local time zone of latitude/longitude
+        // WAS: int offset0 = (int)(lng / 15); // estimate utc correction
+        double offset = cal.getTimeZone().getOffset(cal.getTimeInMillis()) / (3600.0 * 1000.0);
+        calculateDayOfYear(cal.get(Calendar.DAY_OF_YEAR), lat, lng, offset, mResult);
+        mSunRise = (float) mResult[RISE];
+        mSunSet = (float) mResult[SET];
+    }
+
+    /**
+     * Converts a UTC time (in hours) into local time.
+     *
+     * @param UT time in hours (0..24), or ALWAYS_UP or ALWAYS_DOWN.
+     * @param offset timezone offset from UTC, in hours.
+     * @return local time in hours (0..24), or ALWAYS_UP or ALWAYS_DOWN.
+     */
+    static double toLocalTime(double UT, double offset) {
+        double localT = UT + offset;
+        if (localT > 24) {
+            localT = localT - 24;
+        }
+        else if (localT < 0) {
+            localT = localT + 24;
+        }
+        return localT;
     }
 
-    // Version 2 from https://math.stackexchange.com/questions/2186683/how-to-calculate-sunrise-and-sunset-times
-    private double getLocalTime(double lat, double lng, Calendar cal, boolean sunrise) {
-        int dayOfYear = cal.get(Calendar.DAY_OF_YEAR);
-        double zenith = 90.83333333333333;
-        double D2R = Math.PI / 180;
-        double R2D = 180 / Math.PI;
+    /**
+     * Converts a day number (as in LocalDate.toEpochDay()) into the day of the year,
+     * using the proleptic Gregorian calendar.
+     *
+     * @param epochDay days since 1970-01-01.
+     * @return 1..366.
+     */
+    static int dayOfYear(long epochDay) {
+        // see http://howardhinnant.github.io/date_algorithms.html (days_from_civil)
+        long z = epochDay + 719468;  // days since 0000-03-01
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);  // day of 400-year era, 0..146096
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);  // days since March 1st, 0..365
+        if (doy >= 306) {
+            return doy - 305;  // January or February of the next year
+        }
+        long year = era * 400 + yoe;
+        boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        return doy + (leap ? 61 : 60);
+    }
 
+    /**
+     * Calculates sunrise and sunset on a given day.
+     *
+     * @param epochDay days since 1970-01-01 (as in LocalDate.toEpochDay()).
+     * @param lat latitude in degrees.
+     * @param lng longitude in degrees.
+     * @param offset timezone offset from UTC, in hours (0 gives UTC times).
+     * @param result result[RISE] and result[SET] are set to the local time in hours (0..24),
+     *               or ALWAYS_UP or ALWAYS_DOWN if the sun does not rise or set on that day.
+     */
+    static void calculate(long epochDay, double lat, double lng, double offset, double[] result) {
+        solve(dayOfYear(epochDay), lat, lng, offset, result, 1);
+    }
+
+    /**
+     * Calculates sunrise, sunset and the start and end of each kind of twilight on a given day.
+     *
+     * The sun's position is only calculated once, so this costs little more than calculate.
+     *
+     * @param epochDay days since 1970-01-01 (as in LocalDate.toEpochDay()).
+     * @param lat latitude in degrees.
+     * @param lng longitude in degrees.
+     * @param offset timezone offset from UTC, in hours (0 gives UTC times).
+     * @param result TWILIGHT_RESULTS local times, indexed by HORIZON, CIVIL, NAUTICAL or
+     *               ASTRONOMICAL, plus RISE or SET.  ALWAYS_UP means the sun stays above
+     *               that zenith all day, and ALWAYS_DOWN means it stays below it all day.
+     */
+    static void calculateTwilight(long epochDay, double lat, double lng, double offset,
+                                  double[] result) {
+        solve(dayOfYear(epochDay), lat, lng, offset, result, TWILIGHT_RESULTS / 2);
+    }
+
+    /**
+     * Calculates sunrise and sunset on a given day of the year.
+     *
+     * Version 2 from https://math.stackexchange.com/questions/2186683/how-to-calculate-sunrise-and-sunset-times
+     * except that the sun's position is calculated just once, at local noon, and shared
+     * by sunrise and sunset.  The original did it twice, at 6am and 6pm, so instead we
+     * extrapolate the declination and right ascension to those times.
+     *
+     * @param dayOfYear 1..366.
+     * @param lat latitude in degrees.
+     * @param lng longitude in degrees.
+     * @param offset timezone offset from UTC, in hours (0 gives UTC times).
+     * @param result result[RISE] and result[SET] are set to the local time in hours (0..24),
+     *               or ALWAYS_UP or ALWAYS_DOWN if the sun does not rise or set on that day.
+     */
+    static void calculateDayOfYear(int dayOfYear, double lat, double lng, double offset,
+                                   double[] result) {
+        solve(dayOfYear, lat, lng, offset, result, 1);
+    }
+
+    /**
+     * Like calculateTwilight, but for a given day of the year.
+     *
+     * @param dayOfYear 1..366.
+     */
+    static void calculateTwilightDayOfYear(int dayOfYear, double lat, double lng, double offset,
+                                           double[] result) {
+        solve(dayOfYear, lat, lng, offset, result, TWILIGHT_RESULTS / 2);
+    }
+
+    /**
+     * Calculates the first few pairs of events (HORIZON, CIVIL, ...) on a given day.
+     *
+     * @param pairs how many pairs of rise/set times to calculate (1..4).
+     */
+    private static void solve(int dayOfYear, double lat, double lng, double offset,
+                              double[] result, int pairs) {
         // convert the longitude to hour value and calculate an approximate time
         double lnHour = lng / 15;
-        double t;
-        if (sunrise) {
-            t = dayOfYear + ((6 - lnHour) / 24);
-        } else {
-            t = dayOfYear + ((18 - lnHour) / 24);
-        };
+        double t = dayOfYear + ((12 - lnHour) / 24);
 
         //calculate the Sun's mean anomaly
         double M = (0.9856 * t) - 3.289;
@@ -55,7 +187,8 @@ public class SunCalculator {
         }
 
         //calculate the Sun's right ascension
-        double RA = R2D * Math.atan(0.91764 * Math.tan(L * D2R));
+        double tanL = Math.tan(L * D2R);
+        double RA = R2D * Math.atan(0.91764 * tanL);
         if (RA > 360) {
             RA = RA - 360;
         }
@@ -71,45 +204,173 @@ public class SunCalculator {
         //right ascension value needs to be converted into hours
         RA = RA / 15;
 
-        //calculate the Sun's declination
+        //calculate the Sun's declination at noon, and how fast it is changing (per day),
+        //so that we can adjust it to the (approximate) times of sunrise and sunset.
         double sinDec = 0.39782 * Math.sin(L * D2R);
-        double cosDec = Math.cos(Math.asin(sinDec));
-
-        //calculate the Sun's local hour angle
-        double cosH = (Math.cos(zenith * D2R) - (sinDec * Math.sin(lat * D2R)))
-                / (cosDec * Math.cos(lat * D2R));
-        double H;
-        if (sunrise) {
-            H = 360 - R2D * Math.acos(cosH);
-        } else {
-            H = R2D * Math.acos(cosH);
+        double dL = 0.9856 * (1 + 1.916 * D2R * Math.cos(M * D2R));
+        double dSinDec = 0.39782 * Math.cos(L * D2R) * dL * D2R;
+
+        //calculate local time of solar noon, and how fast it drifts (hours per day)
+        double dRA = 0.91764 * (1 + tanL * tanL) / (1 + 0.84206 * tanL * tanL) * dL / 15;
+        double noon = RA - (0.06571 * t) - 6.622 - lnHour + offset;
+        double drift = 0.25 * (dRA - 0.06571);
+
+        //then rising/setting are H hours either side (adjusted to 6am and 6pm).
+        //Only the hour angle depends upon the zenith, so each pair of events is cheap.
+        double sinLat = Math.sin(lat * D2R);
+        double cosLat = Math.cos(lat * D2R);
+        double sinDecRise = sinDec - 0.25 * dSinDec;
+        double sinDecSet = sinDec + 0.25 * dSinDec;
+        for (int p = 0; p < pairs; p++) {
+            double rise = hourAngle(sinDecRise, sinLat, cosLat, COS_ZENITH[p]);
+            double set = hourAngle(sinDecSet, sinLat, cosLat, COS_ZENITH[p]);
+            if (Double.isInfinite(rise) || Double.isInfinite(set)) {
+                // the sun does not cross this zenith today, so use the same value for both.
+                double polar = Double.isInfinite(rise) ? rise : set;
+                result[2 * p + RISE] = polar;
+                result[2 * p + SET] = polar;
+            } else {
+                result[2 * p + RISE] = wrapHours(noon - drift - rise);
+                result[2 * p + SET] = wrapHours(noon + drift + set);
+            }
         }
-        H = H / 15;
+    }
 
-        //calculate local mean time of rising/setting
-        double T = H + RA - (0.06571 * t) - 6.622;
+    /**
+     * Calculates the Sun's local hour angle when it crosses the given zenith.
+     *
+     * @return hours (0..12) either side of noon, or ALWAYS_UP or ALWAYS_DOWN.
+     */
+    private static double hourAngle(double sinDec, double sinLat, double cosLat, double cosZenith) {
+        double cosDec = Math.sqrt(1 - sinDec * sinDec);
+        double cosH = (cosZenith - (sinDec * sinLat)) / (cosDec * cosLat);
+        if (cosH < -1) {
+            return ALWAYS_UP;
+        } else if (cosH > 1) {
+            return ALWAYS_DOWN;
+        }
+        return R2D * Math.acos(cosH) / 15;
+    }
+
+    /** Wraps a time in hours into the range 0..24. */
+    private static double wrapHours(double hours) {
+        return hours - 24 * Math.floor(hours / 24);
+    }
 
-        //adjust back to UTC
-        double UT = T - lnHour;
-        if (UT > 24) {
-            UT = UT - 24;
+    /**
+     * Calculates UTC sunrise and sunset times for a range of days at several locations.
+     *
+     * This is stateless, so it is safe to call from any thread.  The result for location i
+     * on day (firstDay + d) is stored at index (i * days + d) of each output array.
+     * Batches of PARALLEL_THRESHOLD or more results are split across all the cores,
+     * using the common fork-join pool.
+     *
+     * @param lats latitudes in degrees.
+     * @param lngs longitudes in degrees (same length as lats).
+     * @param firstDay day of year of the first day (1..366).
+     * @param days number of days for each location.
+     * @param sunrises output array for the UTC sunrise times (see calculateDayOfYear).
+     * @param sunsets output array for the UTC sunset times (see calculateDayOfYear).
+     */
+    static void calculateBatch(double[] lats, double[] lngs, int firstDay, int days,
+                               float[] sunrises, float[] sunsets) {
+        if (lngs.length != lats.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
         }
-        else if (UT < 0) {
-            UT = UT + 24;
+        int size = lats.length * days;
+        if (sunrises.length < size || sunsets.length < size) {
+            throw new IllegalArgumentException("output arrays need " + size + " elements");
         }
+        run(new BatchTask(lats, lngs, firstDay, days, sunrises, sunsets, null, 0, size));
+    }
 
-        //convert UT value to local time zone of latitude/longitude
-        // WAS: int offset0 = (int)(lng / 15); // estimate utc correction
-        double offset = cal.getTimeZone().getOffset(cal.getTimeInMillis()) / (3600.0 * 1000.0);
-        double localT = UT + offset;
-        if (localT > 24) {
-            localT = localT - 24;
+    /**
+     * Like calculateBatch, but calculates all the twilight times (see calculateTwilight).
+     *
+     * The results for location i on day (firstDay + d) start at index
+     * (i * days + d) * TWILIGHT_RESULTS of the output array.
+     *
+     * @param lats latitudes in degrees.
+     * @param lngs longitudes in degrees (same length as lats).
+     * @param firstDay day of year of the first day (1..366).
+     * @param days number of days for each location.
+     * @param results output array for the UTC times.
+     */
+    static void calculateTwilightBatch(double[] lats, double[] lngs, int firstDay, int days,
+                                       float[] results) {
+        if (lngs.length != lats.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
         }
-        else if (localT < 0) {
-            localT = localT + 24;
+        int size = lats.length * days;
+        if (results.length < size * TWILIGHT_RESULTS) {
+            throw new IllegalArgumentException("output array needs "
+                    + size * TWILIGHT_RESULTS + " elements");
+        }
+        run(new BatchTask(lats, lngs, firstDay, days, null, null, results, 0, size));
+    }
+
+    private static void run(BatchTask task) {
+        if (task.mTo - task.mFrom < PARALLEL_THRESHOLD) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /** Calculates the results in [mFrom, mTo) of a batch, splitting it in half if it is big. */
+    private static class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] mLats;
+        private final double[] mLngs;
+        private final int mFirstDay;
+        private final int mDays;
+        private final float[] mSunrises;
+        private final float[] mSunsets;
+        private final float[] mTwilight;
+        private final int mFrom;
+        private final int mTo;
+
+        BatchTask(double[] lats, double[] lngs, int firstDay, int days,
+                  float[] sunrises, float[] sunsets, float[] twilight, int from, int to) {
+            mLats = lats;
+            mLngs = lngs;
+            mFirstDay = firstDay;
+            mDays = days;
+            mSunrises = sunrises;
+            mSunsets = sunsets;
+            mTwilight = twilight;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom >= PARALLEL_THRESHOLD) {
+                int mid = (mFrom + mTo) >>> 1;
+                invokeAll(new BatchTask(mLats, mLngs, mFirstDay, mDays,
+                                mSunrises, mSunsets, mTwilight, mFrom, mid),
+                        new BatchTask(mLats, mLngs, mFirstDay, mDays,
+                                mSunrises, mSunsets, mTwilight, mid, mTo));
+                return;
+            }
+            double[] result = new double[TWILIGHT_RESULTS];
+            for (int i = mFrom; i < mTo; i++) {
+                double lat = mLats[i / mDays];
+                double lng = mLngs[i / mDays];
+                int day = mFirstDay + i % mDays;
+                if (mTwilight == null) {
+                    calculateDayOfYear(day, lat, lng, 0.0, result);
+                    mSunrises[i] = (float) result[RISE];
+                    mSunsets[i] = (float) result[SET];
+                } else {
+                    calculateTwilightDayOfYear(day, lat, lng, 0.0, result);
+                    for (int k = 0; k < TWILIGHT_RESULTS; k++) {
+                        mTwilight[i * TWILIGHT_RESULTS + k] = (float) result[k];
+                    }
+                }
+            }
         }
-        // System.out.println("offset=" + offset + " sunrise=" + sunrise + " localT=" + localT);
-        return localT;
     }
 
     public float getSunrise() {
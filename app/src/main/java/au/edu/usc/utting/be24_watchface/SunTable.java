@@ -0,0 +1,158 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A table of sunrise and sunset times for every day of the year, at one location.
+ *
+ * The world is divided into cells of CELL_DEGREES square, and each table is calculated
+ * for the centre of one cell.  Moving a quarter of a degree east or west shifts sunrise
+ * and sunset by one minute, so the table only needs to be rebuilt when we move into
+ * a different cell.  Tables are saved in a small binary file named after their cell,
+ * so revisiting a place just costs one file read.
+ *
+ * Each day has all the twilight times (see SunCalculator.calculateTwilight), not just
+ * sunrise and sunset.  Times are stored in UTC hours, so the same table works in any
+ * timezone, and on days when the sun does not rise or set (near the poles) the times are
+ * SunCalculator.ALWAYS_UP or SunCalculator.ALWAYS_DOWN.
+ */
+class SunTable {
+    private static final String TAG = SunTable.class.getSimpleName();
+
+    /** Number of days in the table (DAY_OF_YEAR goes up to 366 in leap years). */
+    static final int DAYS = 366;
+
+    /** Size of each cell, in degrees of latitude and longitude. */
+    static final double CELL_DEGREES = 0.25;
+
+    /** Identifies our file format ("SUN" + version number). */
+    private static final int FILE_MAGIC = 0x53554E03;
+
+    private final int mCellLat;
+    private final int mCellLng;
+    private final float[] mTimes = new float[DAYS * SunCalculator.TWILIGHT_RESULTS];
+
+    private SunTable(int cellLat, int cellLng) {
+        mCellLat = cellLat;
+        mCellLng = cellLng;
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static double cellCentre(int cell) {
+        return (cell + 0.5) * CELL_DEGREES;
+    }
+
+    /**
+     * Gets the table for a given location, reading it from a file if possible,
+     * otherwise calculating it and saving it for next time.
+     *
+     * @param lat latitude in degrees.
+     * @param lng longitude in degrees.
+     * @param dir the directory where tables are saved (e.g. the cache directory).
+     * @return the table for the cell that contains (lat, lng).
+     */
+    static SunTable forLocation(double lat, double lng, File dir) {
+        SunTable table = new SunTable(cell(lat), cell(lng));
+        File file = new File(dir, "sun_" + table.mCellLat + "_" + table.mCellLng + ".bin");
+        if (dir != null && file.exists()) {
+            try {
+                table.read(file);
+                return table;
+            } catch (IOException ex) {
+                Log.w(TAG, "cannot read " + file, ex);
+            }
+        }
+        table.calculate();
+        if (dir != null) {
+            try {
+                table.write(file);
+            } catch (IOException ex) {
+                Log.w(TAG, "cannot write " + file, ex);
+            }
+        }
+        return table;
+    }
+
+    /** True if this table is the right one for the given location. */
+    boolean covers(double lat, double lng) {
+        return cell(lat) == mCellLat && cell(lng) == mCellLng;
+    }
+
+    /**
+     * The UTC time of sunrise.
+     *
+     * @param dayOfYear 1..366
+     * @return hours (0..24), or SunCalculator.ALWAYS_UP or SunCalculator.ALWAYS_DOWN.
+     */
+    float sunrise(int dayOfYear) {
+        return time(dayOfYear, SunCalculator.HORIZON + SunCalculator.RISE);
+    }
+
+    /**
+     * The UTC time of sunset.
+     *
+     * @param dayOfYear 1..366
+     * @return hours (0..24), or SunCalculator.ALWAYS_UP or SunCalculator.ALWAYS_DOWN.
+     */
+    float sunset(int dayOfYear) {
+        return time(dayOfYear, SunCalculator.HORIZON + SunCalculator.SET);
+    }
+
+    /**
+     * The UTC time of one of the twilight events.
+     *
+     * @param dayOfYear 1..366
+     * @param event e.g. SunCalculator.CIVIL + SunCalculator.SET for the end of civil twilight.
+     * @return hours (0..24), or SunCalculator.ALWAYS_UP or SunCalculator.ALWAYS_DOWN.
+     */
+    float time(int dayOfYear, int event) {
+        return mTimes[(dayOfYear - 1) * SunCalculator.TWILIGHT_RESULTS + event];
+    }
+
+    private void calculate() {
+        double[] lat = {cellCentre(mCellLat)};
+        double[] lng = {cellCentre(mCellLng)};
+        SunCalculator.calculateTwilightBatch(lat, lng, 1, DAYS, mTimes);
+    }
+
+    private void read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != mCellLat || in.readInt() != mCellLng) {
+                throw new IOException("wrong format or location");
+            }
+            for (int i = 0; i < mTimes.length; i++) {
+                mTimes[i] = in.readFloat();
+            }
+        }
+    }
+
+    private void write(File file) throws IOException {
+        // write to a temporary file first, so that a half-written table is never read.
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(mCellLat);
+            out.writeInt(mCellLng);
+            for (float time : mTimes) {
+                out.writeFloat(time);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("cannot rename " + temp);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package au.edu.usc.utting.be24_watchface;
+
+/**
+ * Calculates the endpoints of the tick marks around the edge of the dial.
+ *
+ * See FaceLayout for how the results are used.
+ */
+final class TickGeometry {
+    /** The hour numbers (and major ticks) are every three hours. */
+    static final int NUMBER_STEP = 3;
+    static final int NUMBERS = 24 / NUMBER_STEP;
+
+    /** There is a tick every quarter hour. */
+    static final int TICKS = 24 * 4;
+
+    private TickGeometry() {
+    }
+
+    /**
+     * Calculates all the ticks, as line endpoints (x0,y0,x1,y1,...) for Canvas.drawLines.
+     *
+     * Hour 0 is at the bottom, and the hours go clockwise (see Dial.angle).
+     * Each 'quadrant' is the three hours after an hour number.
+     *
+     * @param centerX centre of the dial.
+     * @param centerY centre of the dial.
+     * @param innerRadius where all ticks start.
+     * @param outerRadius where the major and hourly ticks end.
+     * @param minorRadius where the quarter-hour ticks end.
+     * @param majorTicks receives the ticks every three hours (NUMBERS * 4 floats).
+     * @param hourTicks receives the other hourly ticks, for each quadrant.
+     * @param quarterTicks receives the quarter-hour ticks, for each quadrant.
+     */
+    static void computeTicks(float centerX, float centerY,
+                             float innerRadius, float outerRadius, float minorRadius,
+                             float[] majorTicks, float[][] hourTicks, float[][] quarterTicks) {
+        int[] hourCount = new int[NUMBERS];
+        int[] quarterCount = new int[NUMBERS];
+        double tickAngle = Math.PI * 2 / TICKS;
+        for (int tickIndex = 0; tickIndex < TICKS; tickIndex++) {
+            double tickRot = tickIndex * tickAngle;
+            float sin = (float) -Math.sin(tickRot);
+            float cos = (float) Math.cos(tickRot);
+            int q = tickIndex / 4 / NUMBER_STEP;
+            float[] dest;
+            int pos;
+            float outer = outerRadius;
+            if (tickIndex % (NUMBER_STEP * 4) == 0) {
+                // a major tick (there is one per quadrant).
+                dest = majorTicks;
+                pos = q * 4;
+            } else if (tickIndex % 4 == 0) {
+                dest = hourTicks[q];
+                pos = hourCount[q]++ * 4;
+            } else {
+                dest = quarterTicks[q];
+                pos = quarterCount[q]++ * 4;
+                outer = minorRadius;
+            }
+            dest[pos] = centerX + sin * innerRadius;
+            dest[pos + 1] = centerY + cos * innerRadius;
+            dest[pos + 2] = centerX + sin * outer;
+            dest[pos + 3] = centerY + cos * outer;
+        }
+    }
+}
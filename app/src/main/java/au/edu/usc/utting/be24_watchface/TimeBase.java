@@ -0,0 +1,134 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Converts the current time into local hours of the day, without using Calendar on each frame.
+ *
+ * The UTC offset and the start of the local day are cached, and are only recalculated
+ * when the time moves out of the period where they are valid: that is, at local midnight,
+ * at a daylight-saving transition, or when the timezone is changed.  In between, the
+ * local time is just an addition, a subtraction and a divide.
+ *
+ * Hours are local wall-clock hours, so on daylight-saving days (23 or 25 hours long)
+ * some hours are skipped or repeated, just as on an ordinary clock.
+ */
+final class TimeBase {
+    static final long ONE_DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long ONE_MINUTE_MS = 60 * 1000L;
+    private static final float ONE_HOUR_MS = 60 * 60 * 1000f;
+
+    private ZoneId mZone;
+    private ZoneRules mRules;
+
+    /** The cached values are valid from mValidFrom (inclusive) until mValidUntil (exclusive). */
+    private long mValidFrom;
+    private long mValidUntil;
+
+    /** Current UTC offset, in millis. */
+    private long mOffset;
+    /** The local date, as days since 1970-01-01. */
+    private long mEpochDay;
+    /** Start of the local day, in 'local millis' (epoch millis plus the offset). */
+    private long mLocalDayStart;
+    /** Epoch millis of the start of today and tomorrow. */
+    private long mMidnight;
+    private long mNextMidnight;
+
+    TimeBase(ZoneId zone) {
+        setZone(zone);
+    }
+
+    /** Changes the timezone (e.g. after ACTION_TIMEZONE_CHANGED). */
+    void setZone(ZoneId zone) {
+        mZone = zone;
+        mRules = zone.getRules();
+        mValidFrom = Long.MAX_VALUE;
+        mValidUntil = Long.MIN_VALUE;
+    }
+
+    ZoneId getZone() {
+        return mZone;
+    }
+
+    /**
+     * Brings the cached values up to date for the given time.
+     * This is cheap unless a day or daylight-saving boundary has been crossed.
+     *
+     * @param now epoch millis.
+     */
+    void update(long now) {
+        if (now < mValidFrom || now >= mValidUntil) {
+            recalculate(now);
+        }
+    }
+
+    private void recalculate(long now) {
+        Instant instant = Instant.ofEpochMilli(now);
+        mOffset = mRules.getOffset(instant).getTotalSeconds() * 1000L;
+        mEpochDay = Math.floorDiv(now + mOffset, ONE_DAY_MS);
+        mLocalDayStart = mEpochDay * ONE_DAY_MS;
+        LocalDate today = LocalDate.ofEpochDay(mEpochDay);
+        // these allow for days that do not start at 00:00 (e.g. a transition at midnight).
+        mMidnight = today.atStartOfDay(mZone).toInstant().toEpochMilli();
+        mNextMidnight = today.plusDays(1).atStartOfDay(mZone).toInstant().toEpochMilli();
+
+        mValidFrom = mMidnight;
+        mValidUntil = mNextMidnight;
+        // the last transition at or before now, and the first one after now.
+        ZoneOffsetTransition previous = mRules.previousTransition(Instant.ofEpochMilli(now + 1));
+        if (previous != null) {
+            mValidFrom = Math.max(mValidFrom, previous.toEpochSecond() * 1000L);
+        }
+        ZoneOffsetTransition next = mRules.nextTransition(instant);
+        if (next != null) {
+            mValidUntil = Math.min(mValidUntil, next.toEpochSecond() * 1000L);
+        }
+    }
+
+    /**
+     * The local time, in hours since midnight, rounded down to a whole minute.
+     *
+     * @param now epoch millis.
+     * @return 0.0 .. 23.99
+     */
+    float hours(long now) {
+        update(now);
+        return (now + mOffset - mLocalDayStart) / ONE_MINUTE_MS / 60f;
+    }
+
+    /**
+     * The exact local time, in hours since midnight.
+     *
+     * @param now epoch millis.
+     * @return 0.0 .. 23.9999
+     */
+    float exactHours(long now) {
+        update(now);
+        return (now + mOffset - mLocalDayStart) / ONE_HOUR_MS;
+    }
+
+    /** The local date (days since 1970-01-01) at the last update. */
+    long epochDay() {
+        return mEpochDay;
+    }
+
+    /** Epoch millis of the start of the local day, at the last update. */
+    long midnight() {
+        return mMidnight;
+    }
+
+    /** Epoch millis of the start of the next local day, at the last update. */
+    long nextMidnight() {
+        return mNextMidnight;
+    }
+
+    /** The UTC offset in millis, at the last update. */
+    long offset() {
+        return mOffset;
+    }
+}
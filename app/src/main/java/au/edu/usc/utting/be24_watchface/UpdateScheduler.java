@@ -0,0 +1,104 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the watchface next needs to be redrawn, in interactive mode.
+ *
+ * The hand only shows whole minutes, and its tip moves 2*PI*length pixels per day,
+ * which is about 1 pixel/minute on a 400x400 screen, but much less on small screens.
+ * So rather than waking up every minute, we sleep until the first minute boundary
+ * after the earliest of:
+ * <ul>
+ *     <li>the tip of the hand has moved at least one pixel;</li>
+ *     <li>the hand moves into the next quadrant (which shows different ticks);</li>
+ *     <li>an appointment starts or ends, or the sun rises or sets;</li>
+ *     <li>midnight (when the appointments and sun times move on to the next day).</li>
+ * </ul>
+ */
+class UpdateScheduler {
+    static final long ONE_MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final float MINUTES_PER_DAY = 24 * 60;
+
+    /** How many whole minutes the hand takes to move one pixel (at least 1). */
+    private int mMinutesPerPixel = 1;
+
+    /** The snapshot that mEvents was built from. */
+    private FaceState mState;
+    /** Times of today's events (minutes since midnight), sorted. */
+    private float[] mEvents = new float[0];
+
+    /**
+     * Sets the length of the hand, from the centre to the tip.
+     *
+     * @param length in pixels.
+     */
+    void setHandLength(float length) {
+        double pixelsPerMinute = 2 * Math.PI * length / MINUTES_PER_DAY;
+        mMinutesPerPixel = pixelsPerMinute > 0 ? Math.max(1, (int) (1 / pixelsPerMinute)) : 1;
+    }
+
+    /** How many whole minutes the hand takes to move one pixel. */
+    int getMinutesPerPixel() {
+        return mMinutesPerPixel;
+    }
+
+    /**
+     * Collects today's events (appointment starts and ends, sunrise and sunset) from a snapshot.
+     * This does nothing if the snapshot has not changed.
+     */
+    void setEvents(FaceState state) {
+        if (state == mState) {
+            return;
+        }
+        mState = state;
+        Appointments appts = state.appointments;
+        int size = appts == null ? 0 : appts.size();
+        float[] events = new float[2 * size + 2];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (!appts.isAllDay(i)) {
+                events[n++] = appts.startHour(i) * 60f;
+                events[n++] = appts.endHour(i) * 60f;
+            }
+        }
+        if (!Float.isInfinite(state.sunriseHour) && !Float.isInfinite(state.sunsetHour)) {
+            events[n++] = state.sunriseHour * 60f;
+            events[n++] = state.sunsetHour * 60f;
+        }
+        mEvents = Arrays.copyOf(events, n);
+        Arrays.sort(mEvents);
+    }
+
+    /**
+     * Calculates how long to sleep until the next redraw.
+     *
+     * @param now the current time in epoch millis.
+     * @param hoursNow the current local time, in hours 0..24 (including seconds).
+     * @param nextMidnight epoch millis of the start of tomorrow.
+     * @return delay in milliseconds, always ending on a minute boundary (or at midnight).
+     */
+    long nextDelay(long now, float hoursNow, long nextMidnight) {
+        long toNextMinute = ONE_MINUTE_MS - now % ONE_MINUTE_MS;
+        // local time (in minutes) at the next minute boundary.
+        float nextMinute = Math.round(hoursNow * 60f + toNextMinute / (float) ONE_MINUTE_MS);
+
+        // wake up at the k'th minute boundary from now, for the earliest event.
+        int k = mMinutesPerPixel;
+        float quadrant = (FaceLayout.quadrant(hoursNow) + 1) * FaceLayout.NUMBER_STEP * 60f;
+        k = Math.min(k, boundariesUntil(quadrant, nextMinute));
+        int pos = Arrays.binarySearch(mEvents, nextMinute);
+        pos = pos < 0 ? -pos - 1 : pos;  // the first event at or after the next boundary
+        if (pos < mEvents.length) {
+            k = Math.min(k, boundariesUntil(mEvents[pos], nextMinute));
+        }
+        long delay = toNextMinute + (k - 1) * ONE_MINUTE_MS;
+        return Math.max(1, Math.min(delay, nextMidnight - now));
+    }
+
+    /** The number of the first minute boundary at or after the given event. */
+    private static int boundariesUntil(float event, float nextMinute) {
+        return 1 + Math.max(0, (int) Math.ceil(event - nextMinute));
+    }
+}
@@ -0,0 +1,54 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated by the current thread, for allocation regression tests.
+ * This needs a HotSpot-style JVM (com.sun.management.ThreadMXBean).
+ */
+final class Allocations {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    /** Why the allocation tests fail (rather than being skipped) when isSupported() is false. */
+    static final String UNSUPPORTED = "this JVM cannot count thread allocations"
+            + " (com.sun.management.ThreadMXBean), so the allocation check cannot run";
+
+    /** True if allocation counting works on this JVM. */
+    static boolean isSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /** Total bytes allocated so far by the current thread. */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREADS)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs the given code many times (after a warm-up), and returns the bytes allocated.
+     * Any allocation per iteration adds at least 16 bytes each time.
+     */
+    static long measure(Runnable code, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            code.run();
+        }
+        allocatedBytes();  // in case the first call allocates.
+        long before = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            code.run();
+        }
+        return allocatedBytes() - before;
+    }
+}
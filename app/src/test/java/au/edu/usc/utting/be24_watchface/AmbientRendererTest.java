@@ -0,0 +1,58 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Color;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the low-bit reduction of the ambient face.
+ */
+class AmbientRendererTest {
+
+    @Test
+    void testLowBitAmbientColors() {
+        // the colors used by the ambient face stay visible...
+        assertEquals(Color.WHITE, AmbientRenderer.toLowBit(Color.WHITE));
+        assertEquals(Color.WHITE, AmbientRenderer.toLowBit(Color.LTGRAY));
+        assertEquals(Color.WHITE, AmbientRenderer.toLowBit(Color.GRAY));
+        // ...but dark edge pixels disappear.
+        assertEquals(Color.BLACK, AmbientRenderer.toLowBit(Color.DKGRAY));
+        assertEquals(Color.BLACK, AmbientRenderer.toLowBit(Color.BLACK));
+    }
+
+    @Test
+    void testLowBitUsesBrightness() {
+        // pure blue is dark, but pure green is bright.
+        assertEquals(Color.BLACK, AmbientRenderer.toLowBit(Color.BLUE));
+        assertEquals(Color.WHITE, AmbientRenderer.toLowBit(Color.GREEN));
+    }
+
+    @Test
+    void testMuteModeOnLowBitScreen() {
+        int[] colors = {Color.WHITE, Color.LTGRAY, Color.GRAY};
+        // dimming would make the grays disappear on low-bit screens...
+        int dim = AmbientRenderer.MUTE_ALPHA;
+        assertEquals(Color.BLACK, AmbientRenderer.toLowBit(onBlack(Color.GRAY, dim)));
+        assertEquals(Color.BLACK, AmbientRenderer.toLowBit(onBlack(Color.LTGRAY, dim)));
+        // ...so they are not dimmed there, and stay visible.
+        int alpha = AmbientRenderer.ambientAlpha(true, true);
+        for (int color : colors) {
+            assertEquals(Color.WHITE, AmbientRenderer.toLowBit(onBlack(color, alpha)));
+        }
+        assertEquals(AmbientRenderer.MUTE_ALPHA, AmbientRenderer.ambientAlpha(true, false));
+        assertEquals(255, AmbientRenderer.ambientAlpha(false, true));
+    }
+
+    /**
+     * A color drawn with the given alpha over black.
+     * (Color.red etc. are stubs in plain unit tests, so this uses shifts.)
+     */
+    private static int onBlack(int color, int alpha) {
+        int red = ((color >> 16) & 0xFF) * alpha / 255;
+        int green = ((color >> 8) & 0xFF) * alpha / 255;
+        int blue = (color & 0xFF) * alpha / 255;
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,105 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the binary encoding of appointment instances.
+ */
+class AppointmentCodecTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long MIDNIGHT = 1567951200000L;  // 2019-09-09 00:00 in Brisbane
+
+    /** Records what was decoded, in order. */
+    private static class Recorder implements AppointmentCodec.Sink {
+        final StringBuilder log = new StringBuilder();
+
+        @Override
+        public void add(long id, long begin, long end, boolean allDay, int color) {
+            log.append(id).append(':').append(begin).append('-').append(end)
+                    .append(allDay ? " allday " : " ").append(Integer.toHexString(color)).append(';');
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        byte[] data = new AppointmentCodec.Encoder()
+                .add(1, 1000L, 2000L, false, 0xFF0000FF)
+                .add(2, Long.MIN_VALUE, Long.MAX_VALUE, true, 0x80FF0000)
+                .add(Long.MAX_VALUE, -5L, 0L, false, 0)
+                .toByteArray();
+        assertEquals(AppointmentCodec.HEADER_BYTES + 3 * AppointmentCodec.RECORD_BYTES, data.length);
+        Recorder recorder = new Recorder();
+        assertEquals(3, AppointmentCodec.decode(data, recorder));
+        assertEquals("1:1000-2000 ff0000ff;"
+                + "2:" + Long.MIN_VALUE + "-" + Long.MAX_VALUE + " allday 80ff0000;"
+                + Long.MAX_VALUE + ":-5-0 0;", recorder.log.toString());
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        byte[] data = new AppointmentCodec.Encoder().toByteArray();
+        assertEquals(AppointmentCodec.HEADER_BYTES, data.length);
+        assertEquals(0, AppointmentCodec.decode(data, new Recorder()));
+    }
+
+    @Test
+    void testManyInstancesGrowTheBuffer() throws IOException {
+        AppointmentCodec.Encoder encoder = new AppointmentCodec.Encoder();
+        for (int i = 0; i < 1000; i++) {
+            encoder.add(i, i * HOUR, (i + 1) * HOUR, i % 7 == 0, i);
+        }
+        assertEquals(1000, encoder.size());
+        AppointmentIndex.DaySlice slice = new AppointmentIndex.DaySlice(0L, 1000 * HOUR);
+        assertEquals(1000, AppointmentCodec.decode(encoder.toByteArray(), slice));
+        assertEquals(1000, slice.size());
+    }
+
+    @Test
+    void testDecodeIntoIndex() throws IOException {
+        byte[] data = new AppointmentCodec.Encoder()
+                .add(7, MIDNIGHT + 9 * HOUR, MIDNIGHT + 10 * HOUR, false, 0xFF0000FF)
+                .toByteArray();
+        AppointmentIndex.DaySlice slice = new AppointmentIndex.DaySlice(MIDNIGHT, MIDNIGHT + 24 * HOUR);
+        AppointmentCodec.decode(data, slice);
+        AppointmentIndex index = new AppointmentIndex();
+        index.putDay(slice);
+        Appointments appts = index.view(MIDNIGHT, MIDNIGHT + 24 * HOUR, MIDNIGHT,
+                TimeZone.getTimeZone("Australia/Brisbane"));
+        assertEquals(1, appts.size());
+        assertEquals(Dial.angle(9f), appts.startAngle(0), 0.001f);
+        assertEquals(0xFF0000FF, appts.color(0));
+    }
+
+    @Test
+    void testBadData() {
+        byte[] data = new AppointmentCodec.Encoder()
+                .add(1, 1000L, 2000L, false, 0xFF0000FF)
+                .toByteArray();
+        assertUnreadable(null);
+        for (int len = 0; len < data.length; len++) {
+            assertUnreadable(Arrays.copyOf(data, len));
+        }
+        assertUnreadable(Arrays.copyOf(data, data.length + 1));
+        byte[] wrongMagic = data.clone();
+        wrongMagic[0] ^= 1;
+        assertUnreadable(wrongMagic);
+        byte[] wrongCount = data.clone();
+        wrongCount[7] = 2;
+        assertUnreadable(wrongCount);
+    }
+
+    private void assertUnreadable(byte[] data) {
+        try {
+            AppointmentCodec.decode(data, new Recorder());
+            fail("decoded bad data");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
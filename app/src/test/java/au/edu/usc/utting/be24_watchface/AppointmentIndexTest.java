@@ -0,0 +1,155 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static au.edu.usc.utting.be24_watchface.Be24WatchFace.angle;
+import static au.edu.usc.utting.be24_watchface.Be24WatchFace.sweep;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the rolling window of appointments, especially events that cross midnight.
+ */
+class AppointmentIndexTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private TimeZone zone;
+    private Calendar cal;
+    private long today;
+    private long yesterday;
+    private long tomorrow;
+
+    @BeforeEach
+    void setUp() {
+        zone = TimeZone.getTimeZone("Australia/Brisbane");  // UTC+10, no daylight saving
+        cal = Calendar.getInstance(zone);
+        cal.set(2019, 8, 8, 15, 30, 0);
+        today = AppointmentIndex.startOfDay(cal.getTimeInMillis(), cal);
+        yesterday = AppointmentIndex.addDays(today, -1, cal);
+        tomorrow = AppointmentIndex.addDays(today, 1, cal);
+    }
+
+    private AppointmentIndex.DaySlice day(long dayStart) {
+        return new AppointmentIndex.DaySlice(dayStart, AppointmentIndex.addDays(dayStart, 1, cal));
+    }
+
+    @Test
+    void testDays() {
+        assertEquals(24 * HOUR, tomorrow - today);
+        assertEquals(24 * HOUR, today - yesterday);
+        cal.setTimeInMillis(today);
+        assertEquals(0, cal.get(Calendar.HOUR_OF_DAY));
+        assertEquals(8, cal.get(Calendar.DAY_OF_MONTH));
+    }
+
+    @Test
+    void testClipAtMidnight() {
+        AppointmentIndex index = new AppointmentIndex();
+        // 22:00 yesterday until 02:00 today, so it is returned by both day queries.
+        AppointmentIndex.DaySlice slice0 = day(yesterday);
+        slice0.add(1, today - 2 * HOUR, today + 2 * HOUR, false, 0xFF0000FF);
+        AppointmentIndex.DaySlice slice1 = day(today);
+        slice1.add(1, today - 2 * HOUR, today + 2 * HOUR, false, 0xFF0000FF);
+        // 23:00 today until 01:00 tomorrow.
+        slice1.add(2, today + 23 * HOUR, tomorrow + HOUR, false, 0xFF00FF00);
+        index.putDay(slice0);
+        index.putDay(slice1);
+
+        Appointments appts = index.view(today, tomorrow, today, zone);
+        assertEquals(2, appts.size());
+        assertEquals(angle(0.0f), appts.startAngle(0), 0.001f);
+        assertEquals(sweep(0.0f, 2.0f), appts.sweepAngle(0), 0.001f);
+        assertEquals(angle(23.0f), appts.startAngle(1), 0.001f);
+        assertEquals(sweep(23.0f, 24.0f), appts.sweepAngle(1), 0.001f);
+    }
+
+    @Test
+    void testNext24HoursNoDuplicates() {
+        AppointmentIndex index = new AppointmentIndex();
+        AppointmentIndex.DaySlice slice1 = day(today);
+        slice1.add(2, today + 23 * HOUR, tomorrow + HOUR, false, 0);
+        AppointmentIndex.DaySlice slice2 = day(tomorrow);
+        slice2.add(2, today + 23 * HOUR, tomorrow + HOUR, false, 0);
+        slice2.add(3, tomorrow + 20 * HOUR, tomorrow + 21 * HOUR, false, 0);
+        index.putDay(slice1);
+        index.putDay(slice2);
+
+        long now = today + 15 * HOUR;
+        Appointments appts = index.view(now, now + 24 * HOUR, today, zone);
+        assertEquals(1, appts.size());
+        assertEquals(angle(23.0f), appts.startAngle(0), 0.001f);
+        assertEquals(sweep(23.0f, 25.0f), appts.sweepAngle(0), 0.001f);
+    }
+
+    @Test
+    void testAllDayUsesLocalDate() {
+        AppointmentIndex index = new AppointmentIndex();
+        long utcToday = today + zone.getOffset(today);  // UTC midnight of today's date
+        AppointmentIndex.DaySlice slice = day(today);
+        slice.add(5, today + 9 * HOUR, today + 10 * HOUR, false, 0);
+        slice.add(6, utcToday - 24 * HOUR, utcToday, true, 0);  // yesterday's all-day event
+        slice.add(7, utcToday, utcToday + 24 * HOUR, true, 0);  // today's all-day event
+        index.putDay(slice);
+
+        Appointments appts = index.view(today, tomorrow, today, zone);
+        assertEquals(2, appts.size());
+        // the all-day appointment is drawn first, even though it was added last.
+        assertTrue(appts.isAllDay(0));
+        assertFalse(appts.isAllDay(1));
+        assertEquals(angle(9.0f), appts.startAngle(1), 0.001f);
+    }
+
+    @Test
+    void testPutDaysFromSync() throws IOException {
+        long utcTomorrow = tomorrow + zone.getOffset(tomorrow);  // UTC midnight of tomorrow's date
+        byte[] data = new AppointmentCodec.Encoder()
+                .add(1, today + 9 * HOUR, today + 10 * HOUR, false, 0)
+                .add(2, today + 23 * HOUR, tomorrow + HOUR, false, 0)
+                .add(3, utcTomorrow, utcTomorrow + 24 * HOUR, true, 0)
+                .toByteArray();
+        AppointmentIndex index = new AppointmentIndex();
+        index.putDays(today, AppointmentIndex.addDays(today, 2, cal), data, cal);
+        assertEquals(2, index.dayCount());
+
+        Appointments appts = index.view(today, tomorrow, today, zone);
+        assertEquals(2, appts.size());
+        assertFalse(appts.isAllDay(0));
+        assertEquals(angle(9.0f), appts.startAngle(0), 0.001f);
+        assertEquals(sweep(23.0f, 24.0f), appts.sweepAngle(1), 0.001f);
+
+        appts = index.view(tomorrow, AppointmentIndex.addDays(tomorrow, 1, cal), tomorrow, zone);
+        assertEquals(2, appts.size());
+        assertTrue(appts.isAllDay(0));
+        assertEquals(sweep(0.0f, 1.0f), appts.sweepAngle(1), 0.001f);
+    }
+
+    @Test
+    void testPutDaysBadData() {
+        AppointmentIndex index = new AppointmentIndex();
+        try {
+            index.putDays(today, tomorrow, new byte[3], cal);
+            fail("decoded bad data");
+        } catch (IOException ex) {
+            assertEquals(0, index.dayCount());
+        }
+    }
+
+    @Test
+    void testEviction() {
+        AppointmentIndex index = new AppointmentIndex();
+        for (int d = -3; d <= 3; d++) {
+            index.putDay(day(AppointmentIndex.addDays(today, d, cal)));
+        }
+        assertEquals(7, index.dayCount());
+        index.retainDays(yesterday, AppointmentIndex.addDays(today, 2, cal));
+        assertEquals(3, index.dayCount());
+        assertTrue(index.hasDay(yesterday));
+        assertTrue(index.hasDay(today));
+        assertTrue(index.hasDay(tomorrow));
+        assertFalse(index.hasDay(AppointmentIndex.addDays(today, -2, cal)));
+    }
+}
@@ -0,0 +1,71 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import static au.edu.usc.utting.be24_watchface.Be24WatchFace.angle;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the drawing order and the 'level of detail' merging of appointments.
+ */
+class AppointmentsTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+
+    @Test
+    void testAllDayFirst() {
+        Appointments appts = new Appointments.Builder()
+                .add(9f, 10f, false, RED)
+                .add(0f, 24f, true, BLUE)
+                .add(11f, 12f, false, RED)
+                .build();
+        assertEquals(3, appts.size());
+        assertTrue(appts.isAllDay(0));
+        assertFalse(appts.isAllDay(1));
+        assertEquals(angle(9f), appts.startAngle(1), 0.001f);
+        assertEquals(angle(11f), appts.startAngle(2), 0.001f);
+    }
+
+    @Test
+    void testFewAppointmentsAreNotMerged() {
+        Appointments.Builder builder = new Appointments.Builder();
+        for (int i = 0; i < Appointments.LOD_THRESHOLD; i++) {
+            builder.add(9f, 10f, false, RED);
+        }
+        assertEquals(Appointments.LOD_THRESHOLD, builder.build().size());
+    }
+
+    @Test
+    void testDuplicatesAreMerged() {
+        Appointments.Builder builder = new Appointments.Builder();
+        for (int i = 0; i < 50; i++) {
+            // the same meeting, in two calendars, plus overlapping meetings.
+            builder.add(9f, 10f, false, RED);
+            builder.add(9f, 10f, false, RED);
+            builder.add(9.5f, 11f, false, RED);
+        }
+        builder.add(0f, 24f, true, BLUE);
+        Appointments appts = builder.build();
+        assertEquals(2, appts.size());
+        assertTrue(appts.isAllDay(0));
+        assertEquals(angle(9f), appts.startAngle(1), 0.001f);
+        assertEquals(30f, appts.sweepAngle(1), 0.001f);
+    }
+
+    @Test
+    void testMergeAcrossMidnight() {
+        Appointments.Builder builder = new Appointments.Builder();
+        for (int i = 0; i < 30; i++) {
+            builder.add(22f, 24f, false, RED);
+            builder.add(0f, 1f, false, RED);
+            builder.add(12f, 13f, false, i % 2 == 0 ? RED : BLUE);
+        }
+        Appointments appts = builder.build();
+        assertEquals(2, appts.size());
+        // 12:00..13:00 is the last color painted there, then 22:00..01:00 wraps around midnight.
+        assertEquals(angle(12f), appts.startAngle(0), 0.001f);
+        assertEquals(15f, appts.sweepAngle(0), 0.001f);
+        assertEquals(angle(22f), appts.startAngle(1), 0.001f);
+        assertEquals(45f, appts.sweepAngle(1), 0.001f);
+    }
+}
@@ -0,0 +1,37 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.robolectric.Robolectric;
+
+import static org.junit.Assert.assertSame;
+
+/**
+ * Sets up a real Be24WatchFace engine for the Robolectric render tests.
+ */
+final class EngineFixture {
+    private EngineFixture() {
+    }
+
+    /**
+     * Creates an engine, and gives it a square surface.
+     *
+     * @param size width and height of the screen, in pixels.
+     * @return the engine (the caller must call onDestroy).
+     */
+    static Be24WatchFace.Engine create(int size) {
+        Be24WatchFace service = Robolectric.setupService(Be24WatchFace.class);
+        Be24WatchFace.Engine engine = service.onCreateEngine();
+        engine.onCreate(engine.getSurfaceHolder());
+        engine.onSurfaceChanged(engine.getSurfaceHolder(), 0, size, size);
+        return engine;
+    }
+
+    /** Shows the given appointments, and waits until the worker thread has published them. */
+    static void showAppointments(Be24WatchFace.Engine engine, Appointments appts)
+            throws InterruptedException {
+        engine.setAppointments(appts);
+        for (int i = 0; i < 500 && engine.getFaceState().appointments != appts; i++) {
+            Thread.sleep(10);
+        }
+        assertSame(appts, engine.getFaceState().appointments);
+    }
+}
@@ -0,0 +1,53 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Paint;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the precalculated tick positions.
+ */
+class FaceLayoutTest {
+
+    private final FaceLayout layout = new FaceLayout(400, 400, new Paint(), new Paint());
+
+    @Test
+    void testMajorTicks() {
+        assertEquals(FaceLayout.NUMBERS * 4, layout.majorTicks.length);
+        // midnight is at the bottom, and runs from the inner tick radius to the edge.
+        assertEquals(200f, layout.majorTicks[0], 0.001f);
+        assertEquals(380f, layout.majorTicks[1], 0.001f);
+        assertEquals(200f, layout.majorTicks[2], 0.001f);
+        assertEquals(400f, layout.majorTicks[3], 0.001f);
+        // 6am is on the left.
+        assertEquals(20f, layout.majorTicks[2 * 4], 0.001f);
+        assertEquals(200f, layout.majorTicks[2 * 4 + 1], 0.001f);
+        // noon is at the top.
+        assertEquals(200f, layout.majorTicks[4 * 4], 0.001f);
+        assertEquals(0f, layout.majorTicks[4 * 4 + 3], 0.001f);
+    }
+
+    @Test
+    void testQuarterTicks() {
+        for (int q = 0; q < FaceLayout.QUADRANTS; q++) {
+            assertEquals(2 * 4, layout.hourTicks[q].length);
+            assertEquals(9 * 4, layout.quarterTicks[q].length);
+        }
+        // the first quarter tick (00:15) is short, and just left of midnight.
+        float[] ticks = layout.quarterTicks[0];
+        float length = (float) Math.hypot(ticks[2] - ticks[0], ticks[3] - ticks[1]);
+        assertEquals(10f, length, 0.001f);
+        assertTrue(ticks[0] < 200f);
+    }
+
+    @Test
+    void testQuadrant() {
+        assertEquals(0, FaceLayout.quadrant(0f));
+        assertEquals(0, FaceLayout.quadrant(2.99f));
+        assertEquals(1, FaceLayout.quadrant(3f));
+        assertEquals(7, FaceLayout.quadrant(23.9f));
+        assertEquals(0, FaceLayout.quadrant(24f));
+    }
+}
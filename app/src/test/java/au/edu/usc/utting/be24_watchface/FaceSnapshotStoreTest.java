@@ -0,0 +1,96 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the binary format of the saved face snapshot.
+ */
+class FaceSnapshotStoreTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+
+    private FaceState makeState(Appointments appts) {
+        float[] sunHours = new float[SunCalculator.TWILIGHT_RESULTS];
+        for (int i = 0; i < sunHours.length; i++) {
+            sunHours[i] = 4.5f + i;
+        }
+        sunHours[SunCalculator.TWILIGHT_RESULTS - 1] = Float.POSITIVE_INFINITY;
+        return new FaceState(-26.84, 152.96, sunHours, 19000L, appts, 19000L, 7);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Appointments appts = new Appointments.Builder()
+                .add(9f, 10f, false, RED)
+                .add(0f, 24f, true, BLUE)
+                .add(13.5f, 15f, false, RED)
+                .build();
+        FaceState state = makeState(appts);
+        byte[] bytes = FaceSnapshotStore.encode(new FaceSnapshotStore.Snapshot(19000L, 2, state));
+
+        FaceSnapshotStore.Snapshot copy = FaceSnapshotStore.decode(bytes);
+        assertEquals(19000L, copy.epochDay);
+        assertEquals(2, copy.handStyle);
+        assertEquals(state.latitude, copy.state.latitude);
+        assertEquals(state.longitude, copy.state.longitude);
+        assertArrayEquals(state.sunHours(), copy.state.sunHours());
+        Appointments appts2 = copy.state.appointments;
+        assertEquals(appts.size(), appts2.size());
+        for (int i = 0; i < appts.size(); i++) {
+            assertEquals(appts.startAngle(i), appts2.startAngle(i));
+            assertEquals(appts.sweepAngle(i), appts2.sweepAngle(i));
+            assertEquals(appts.color(i), appts2.color(i));
+            assertEquals(appts.isAllDay(i), appts2.isAllDay(i));
+        }
+    }
+
+    @Test
+    void testDayOfData() throws IOException {
+        // new appointments after midnight, but the sun times are still yesterday's.
+        FaceState state = makeState(null).withAppointments(null, 19001L);
+        assertEquals(19000L, state.epochDay());
+        FaceSnapshotStore.Snapshot copy = FaceSnapshotStore.decode(
+                FaceSnapshotStore.encode(new FaceSnapshotStore.Snapshot(state.epochDay(), 0, state)));
+        assertEquals(19000L, copy.epochDay);
+        assertEquals(19000L, copy.state.sunDay);
+        assertEquals(19000L, copy.state.appointmentsDay);
+        // and once the sun catches up, the whole snapshot is for the new day.
+        assertEquals(19001L, state.withSun(0.0, 0.0, state.sunHours(), 19001L).epochDay());
+    }
+
+    @Test
+    void testUnknownAppointments() throws IOException {
+        byte[] bytes = FaceSnapshotStore.encode(new FaceSnapshotStore.Snapshot(1L, 0, makeState(null)));
+        assertNull(FaceSnapshotStore.decode(bytes).state.appointments);
+    }
+
+    @Test
+    void testWrongMagic() {
+        byte[] bytes = FaceSnapshotStore.encode(new FaceSnapshotStore.Snapshot(1L, 0, makeState(null)));
+        bytes[0] ^= 1;
+        assertUnreadable(bytes);
+    }
+
+    @Test
+    void testTruncated() {
+        Appointments appts = new Appointments.Builder().add(9f, 10f, false, RED).build();
+        byte[] bytes = FaceSnapshotStore.encode(new FaceSnapshotStore.Snapshot(1L, 0, makeState(appts)));
+        for (int len = 0; len < bytes.length; len++) {
+            assertUnreadable(Arrays.copyOf(bytes, len));
+        }
+    }
+
+    private void assertUnreadable(byte[] bytes) {
+        try {
+            FaceSnapshotStore.decode(bytes);
+            fail("decoded " + bytes.length + " bad bytes");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.support.wearable.watchface.WatchFaceService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that drawing a steady-state frame allocates nothing, since garbage collection
+ * on a watch causes visible jank and wastes battery.
+ *
+ * Like RenderBenchmarkTest, this drives a real engine with Robolectric's native graphics.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class FrameAllocationTest {
+    private static final int SIZE = 400;
+    private static final int FRAMES = 1000;
+    /** Allowing for one-off allocations only: one object per frame would be FRAMES * 16 bytes. */
+    private static final long MAX_BYTES = 1000;
+
+    private Be24WatchFace.Engine mEngine;
+    private final Bitmap mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    private final Canvas mCanvas = new Canvas(mBitmap);
+    private final Rect mBounds = new Rect(0, 0, SIZE, SIZE);
+
+    private final Runnable mDrawFrame = new Runnable() {
+        @Override
+        public void run() {
+            mEngine.onDraw(mCanvas, mBounds);
+        }
+    };
+
+    /** What handleUpdateTimeMessage does each minute, minus the surface locking. */
+    private final Runnable mUpdateTime = new Runnable() {
+        @Override
+        public void run() {
+            if (mEngine.prepareIncremental()) {
+                mEngine.drawIncremental(mCanvas);
+            }
+            mEngine.scheduleNextUpdate();
+        }
+    };
+
+    @Before
+    public void setUp() throws InterruptedException {
+        assertTrue(Allocations.UNSUPPORTED, Allocations.isSupported());
+        mEngine = EngineFixture.create(SIZE);
+        Appointments appts = new Appointments.Builder()
+                .add(9f, 10f, false, Be24WatchFace.BLUE65)
+                .add(13.5f, 15f, false, Be24WatchFace.AMBER65)
+                .add(0f, 24f, true, Be24WatchFace.BLUE65)
+                .build();
+        EngineFixture.showAppointments(mEngine, appts);
+    }
+
+    @After
+    public void tearDown() {
+        if (mEngine != null) {
+            mEngine.onDestroy();
+        }
+    }
+
+    private void assertNoAllocation(String mode) {
+        assertNoAllocation(mode, mDrawFrame);
+    }
+
+    private void assertNoAllocation(String mode, Runnable frame) {
+        long bytes = Allocations.measure(frame, FRAMES);
+        assertTrue(mode + " frames allocated " + bytes + " bytes in " + FRAMES + " frames",
+                bytes < MAX_BYTES);
+    }
+
+    @Test
+    public void testInteractiveFrames() {
+        for (int hand = 0; hand < Be24WatchFace.HAND_STYLES; hand++) {
+            mEngine.setHourHandStyle(hand);
+            assertNoAllocation("interactive");
+        }
+    }
+
+    @Test
+    public void testAmbientFrames() {
+        mEngine.onAmbientModeChanged(true);
+        assertNoAllocation("ambient");
+    }
+
+    @Test
+    public void testMuteFrames() {
+        mEngine.onInterruptionFilterChanged(WatchFaceService.INTERRUPTION_FILTER_NONE);
+        assertNoAllocation("mute");
+    }
+
+    @Test
+    public void testPerMinuteUpdates() {
+        for (int hand = 0; hand < Be24WatchFace.HAND_STYLES; hand++) {
+            mEngine.setHourHandStyle(hand);
+            mDrawFrame.run();  // renders the layers, so the updates can be incremental.
+            assertTrue("layers should be ready", mEngine.prepareIncremental());
+            assertNoAllocation("per-minute", mUpdateTime);
+        }
+    }
+}
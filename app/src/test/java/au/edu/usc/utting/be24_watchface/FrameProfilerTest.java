@@ -0,0 +1,88 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the frame timing histograms.
+ */
+class FrameProfilerTest {
+
+    @Test
+    void testBuckets() {
+        assertEquals(0, FrameProfiler.bucket(0L));
+        assertEquals(0, FrameProfiler.bucket(1L));
+        assertEquals(1, FrameProfiler.bucket(2L));
+        assertEquals(1, FrameProfiler.bucket(3L));
+        assertEquals(10, FrameProfiler.bucket(1024L));
+        assertEquals(FrameProfiler.BUCKETS - 1, FrameProfiler.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testPercentiles() {
+        FrameProfiler profiler = new FrameProfiler();
+        assertEquals(0L, profiler.percentile(FrameProfiler.HAND, 50));
+        for (int i = 0; i < 90; i++) {
+            profiler.add(FrameProfiler.HAND, 1000L);  // bucket 9: 512..1023
+        }
+        for (int i = 0; i < 10; i++) {
+            profiler.add(FrameProfiler.HAND, 5000L);  // bucket 12: 4096..8191
+        }
+        assertEquals(100L, profiler.getCount(FrameProfiler.HAND));
+        assertEquals(90L, profiler.getBucketCount(FrameProfiler.HAND, 9));
+        assertEquals(1023L, profiler.percentile(FrameProfiler.HAND, 50));
+        assertEquals(1023L, profiler.percentile(FrameProfiler.HAND, 90));
+        // capped at the largest value seen.
+        assertEquals(5000L, profiler.percentile(FrameProfiler.HAND, 99));
+        assertEquals(0L, profiler.getCount(FrameProfiler.FACE));
+    }
+
+    @Test
+    void testWakeToDraw() {
+        FrameProfiler profiler = new FrameProfiler();
+        profiler.drawn();
+        assertEquals(0L, profiler.getCount(FrameProfiler.WAKE_TO_DRAW));
+        profiler.wake();
+        profiler.drawn();
+        profiler.drawn();  // only one frame per wake-up
+        assertEquals(1L, profiler.getCount(FrameProfiler.WAKE_TO_DRAW));
+    }
+
+    @Test
+    void testDump() {
+        FrameProfiler profiler = new FrameProfiler();
+        long t = profiler.start();
+        profiler.record(FrameProfiler.FRAME, t);
+        StringWriter out = new StringWriter();
+        profiler.dump(new PrintWriter(out));
+        String text = out.toString();
+        for (String name : FrameProfiler.PHASE_NAMES) {
+            assertTrue(text.contains(name), name);
+        }
+        assertTrue(text.contains("buckets:"));
+        profiler.reset();
+        assertEquals(0L, profiler.getCount(FrameProfiler.FRAME));
+    }
+
+    @Test
+    void testRecordingDoesNotAllocate() {
+        assertTrue(Allocations.isSupported(), Allocations.UNSUPPORTED);
+        final FrameProfiler profiler = new FrameProfiler();
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                profiler.wake();
+                long t = profiler.start();
+                t = profiler.record(FrameProfiler.PREPARE, t);
+                t = profiler.record(FrameProfiler.LAYERS, t);
+                profiler.record(FrameProfiler.HAND, t);
+                profiler.drawn();
+            }
+        }, 10000);
+        assertTrue(bytes < 10000, bytes + " bytes allocated");
+    }
+}
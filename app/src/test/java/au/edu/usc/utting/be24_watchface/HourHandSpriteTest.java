@@ -0,0 +1,109 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the pre-rendered hand sprites look the same as drawing the paths directly.
+ *
+ * This needs real rendering, so it uses Robolectric's native graphics (and JUnit 4),
+ * unlike the other tests.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class HourHandSpriteTest {
+    private static final int SIZE = 400;
+
+    /** How different (0..255 in any channel) a pixel must be to count as different. */
+    private static final int TOLERANCE = 64;
+
+    private static Paint[] makePaints(boolean ambient) {
+        Paint[] paints = new Paint[Be24WatchFace.APPTS + 1];
+        for (int i = 0; i < paints.length; i++) {
+            paints[i] = new Paint();
+            paints[i].setAntiAlias(!ambient);
+        }
+        paints[Be24WatchFace.HAND1].setColor(ambient ? Color.WHITE : Be24WatchFace.BLUE100);
+        paints[Be24WatchFace.HAND1].setStyle(Paint.Style.STROKE);
+        paints[Be24WatchFace.HAND1].setStrokeWidth(HourHand.HOUR_STROKE_WIDTH);
+        paints[Be24WatchFace.HAND2].setColor(ambient ? Color.DKGRAY : Be24WatchFace.AMBER65);
+        return paints;
+    }
+
+    private static int[] render(HourHand hand, float hours, Paint[] paints, boolean ambient,
+                                boolean sprite) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.BLACK);
+        if (sprite) {
+            hand.drawHand(canvas, hours, paints, ambient);
+        } else {
+            hand.drawHandDirect(canvas, hours, paints, ambient);
+        }
+        int[] pixels = new int[SIZE * SIZE];
+        bitmap.getPixels(pixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        return pixels;
+    }
+
+    private static boolean different(int a, int b) {
+        return Math.abs(Color.red(a) - Color.red(b)) > TOLERANCE
+                || Math.abs(Color.green(a) - Color.green(b)) > TOLERANCE
+                || Math.abs(Color.blue(a) - Color.blue(b)) > TOLERANCE;
+    }
+
+    private void assertSameAsPaths(HourHand hand, boolean ambient) {
+        Paint[] normal = makePaints(false);
+        Paint[] amb = makePaints(true);
+        Paint[] paints = ambient ? amb : normal;
+        hand.setPaints(normal, amb);
+        hand.setGeometry(SIZE / 2f, SIZE / 2f, SIZE / 2f - SIZE / 2f * Be24WatchFace.MAJOR_TICK_LENGTH - 2f);
+        for (float hours = 0f; hours < 24f; hours += 1.37f) {
+            int[] expected = render(hand, hours, paints, ambient, false);
+            int[] actual = render(hand, hours, paints, ambient, true);
+            int handPixels = 0;
+            int differences = 0;
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != Color.BLACK) {
+                    handPixels++;
+                }
+                if (different(expected[i], actual[i])) {
+                    differences++;
+                }
+            }
+            String msg = hand.getClass().getSimpleName() + " at " + hours + " hours: "
+                    + differences + " of " + handPixels + " pixels differ";
+            assertTrue(msg, handPixels > 100);
+            // only the anti-aliased edges should differ, due to resampling the sprite.
+            assertTrue(msg, differences <= handPixels / 20);
+        }
+    }
+
+    @Test
+    public void testSimpleHand() {
+        assertSameAsPaths(new HourHand(makePaints(false), makePaints(true)), false);
+        assertSameAsPaths(new HourHand(makePaints(false), makePaints(true)), true);
+    }
+
+    @Test
+    public void testOutlineTriangle() {
+        assertSameAsPaths(new HourHandOutlineTriangle(makePaints(false), makePaints(true)), false);
+        assertSameAsPaths(new HourHandOutlineTriangle(makePaints(false), makePaints(true)), true);
+    }
+
+    @Test
+    public void test3DTriangle() {
+        assertSameAsPaths(new HourHand3DTriangle(makePaints(false), makePaints(true)), false);
+        assertSameAsPaths(new HourHand3DTriangle(makePaints(false), makePaints(true)), true);
+    }
+}
@@ -0,0 +1,68 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the filtering of location fixes.
+ */
+class LocationGateTest {
+    private static final double BRISBANE_LAT = -27.4698;
+    private static final double BRISBANE_LNG = 153.0251;
+    private static final double SYDNEY_LAT = -33.8688;
+    private static final double SYDNEY_LNG = 151.2093;
+
+    @Test
+    void testDistance() {
+        assertEquals(0.0, LocationGate.distance(BRISBANE_LAT, BRISBANE_LNG, BRISBANE_LAT, BRISBANE_LNG), 1e-6);
+        assertEquals(732e3, LocationGate.distance(BRISBANE_LAT, BRISBANE_LNG, SYDNEY_LAT, SYDNEY_LNG), 5e3);
+        // one degree of longitude at the equator.
+        assertEquals(111.2e3, LocationGate.distance(0.0, 179.5, 0.0, -179.5), 0.1e3);
+    }
+
+    @Test
+    void testFarEnough() {
+        LocationGate gate = new LocationGate(Be24WatchFace.MIN_LOCATION_DISTANCE_M);
+        assertTrue(gate.isFarEnough(BRISBANE_LAT, BRISBANE_LNG));  // no position yet
+        gate.setPosition(BRISBANE_LAT, BRISBANE_LNG);
+        assertFalse(gate.isFarEnough(BRISBANE_LAT + 0.05, BRISBANE_LNG));  // about 5.6km
+        assertTrue(gate.isFarEnough(BRISBANE_LAT + 0.1, BRISBANE_LNG));  // about 11km
+        assertTrue(gate.isFarEnough(SYDNEY_LAT, SYDNEY_LNG));
+    }
+
+    @Test
+    void testSunShifted() {
+        float[] before = {6.0f, 18.0f, 5.5f, 18.5f};
+        assertFalse(LocationGate.sunShifted(before, new float[]{6.01f, 17.99f, 5.5f, 18.5f}));
+        assertTrue(LocationGate.sunShifted(before, new float[]{6.0f, 18.0f, 5.5f, 18.52f}));
+        // just either side of midnight.
+        assertFalse(LocationGate.sunShifted(new float[]{23.995f}, new float[]{0.003f}));
+        assertTrue(LocationGate.sunShifted(new float[]{23.9f}, new float[]{0.1f}));
+        // the sun starts or stops setting.
+        float up = (float) SunCalculator.ALWAYS_UP;
+        assertFalse(LocationGate.sunShifted(new float[]{up, up}, new float[]{up, up}));
+        assertTrue(LocationGate.sunShifted(new float[]{up, up}, new float[]{0.5f, 23.5f}));
+    }
+
+    @Test
+    void testSmallMoveKeepsSun() {
+        // moving 10km east shifts the sun by about 0.5 minutes, which is not visible.
+        long day = 18000;
+        double[] a = new double[SunCalculator.TWILIGHT_RESULTS];
+        double[] b = new double[SunCalculator.TWILIGHT_RESULTS];
+        SunCalculator.calculateTwilight(day, 0.0, 0.0, 0.0, a);
+        SunCalculator.calculateTwilight(day, 0.0, 0.09, 0.0, b);
+        assertFalse(LocationGate.sunShifted(toFloats(a), toFloats(b)));
+        SunCalculator.calculateTwilight(day, 0.0, 0.5, 0.0, b);
+        assertTrue(LocationGate.sunShifted(toFloats(a), toFloats(b)));
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package au.edu.usc.utting.be24_watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.support.wearable.watchface.WatchFaceService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.Locale;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the time per frame of the whole onDraw path, headless, with real (native) graphics.
+ *
+ * This drives a real Be24WatchFace engine through onCreate, onSurfaceChanged and onDraw
+ * into a bitmap, for each screen size, hand style, mode and number of appointments.
+ * It is skipped unless asked for, since it takes a minute or so:
+ * <pre>
+ *     ./gradlew :app:testDebugUnitTest --tests '*RenderBenchmarkTest' -Dbe24.benchmark=true
+ * </pre>
+ * The number of frames per case can be set with -Dbe24.benchmark.frames=N.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RenderBenchmarkTest {
+    private static final int[] SIZES = {320, 390, 454};
+    private static final int[] APPOINTMENTS = {0, 10, 200};
+    private static final String[] MODES = {"normal", "ambient", "mute"};
+    private static final int WARMUP_FRAMES = 50;
+
+    private int mFrames;
+
+    @Before
+    public void setUp() {
+        assumeTrue("set -Dbe24.benchmark=true to run", Boolean.getBoolean("be24.benchmark"));
+        mFrames = Integer.getInteger("be24.benchmark.frames", 2000);
+    }
+
+    private static void setMode(Be24WatchFace.Engine engine, String mode) {
+        engine.onAmbientModeChanged(mode.equals("ambient"));
+        engine.onInterruptionFilterChanged(mode.equals("mute")
+                ? WatchFaceService.INTERRUPTION_FILTER_NONE
+                : WatchFaceService.INTERRUPTION_FILTER_ALL);
+    }
+
+    @Test
+    public void benchmarkFrames() throws InterruptedException {
+        Be24WatchFace.Engine engine = EngineFixture.create(SIZES[0]);
+        System.out.println(String.format(Locale.US, "%5s %6s %8s %6s %10s %10s",
+                "size", "hand", "mode", "appts", "first(us)", "frame(us)"));
+        try {
+            for (int size : SIZES) {
+                engine.onSurfaceChanged(engine.getSurfaceHolder(), 0, size, size);
+                Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+                Rect bounds = new Rect(0, 0, size, size);
+                for (int hand = 0; hand < Be24WatchFace.HAND_STYLES; hand++) {
+                    engine.setHourHandStyle(hand);
+                    for (int count : APPOINTMENTS) {
+                        EngineFixture.showAppointments(engine, new SyntheticAppointments(count).build());
+                        for (String mode : MODES) {
+                            setMode(engine, mode);
+                            // the first frame re-renders the cached layers.
+                            long start = System.nanoTime();
+                            engine.onDraw(canvas, bounds);
+                            long first = System.nanoTime() - start;
+                            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                                engine.onDraw(canvas, bounds);
+                            }
+                            start = System.nanoTime();
+                            for (int i = 0; i < mFrames; i++) {
+                                engine.onDraw(canvas, bounds);
+                            }
+                            long perFrame = (System.nanoTime() - start) / mFrames;
+                            System.out.println(String.format(Locale.US, "%5d %6d %8s %6d %10.1f %10.1f",
+                                    size, hand, mode, count, first / 1000.0, perFrame / 1000.0));
+                        }
+                    }
+                }
+            }
+        } finally {
+            engine.onDestroy();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
@@ -90,4 +91,170 @@ class SunCalculatorTest {
         // solar noon: 1:33pm + 1 hour daylight saving
         runTest(sep, 47.246, 5.9876, 7 + 03f/60f, 20 + 02f/60f);
     }
+
+    /**
+     * Reference sunrise/sunset from the NOAA "General Solar Position Calculations"
+     * (https://gml.noaa.gov/grad/solcalc/solareqns.PDF), which is an independent
+     * algorithm, accurate to a minute or two away from the poles.
+     *
+     * @return UTC hours (0..24).
+     */
+    private static double noaaUniversalTime(double lat, double lng, int dayOfYear, boolean sunrise) {
+        return noaaUniversalTime(lat, lng, dayOfYear, sunrise, 90.833);
+    }
+
+    private static double noaaUniversalTime(double lat, double lng, int dayOfYear, boolean sunrise,
+                                            double zenith) {
+        double g = 2 * Math.PI / 365 * (dayOfYear - 1);
+        double eqTime = 229.18 * (0.000075 + 0.001868 * Math.cos(g) - 0.032077 * Math.sin(g)
+                - 0.014615 * Math.cos(2 * g) - 0.040849 * Math.sin(2 * g));
+        double decl = 0.006918 - 0.399912 * Math.cos(g) + 0.070257 * Math.sin(g)
+                - 0.006758 * Math.cos(2 * g) + 0.000907 * Math.sin(2 * g)
+                - 0.002697 * Math.cos(3 * g) + 0.00148 * Math.sin(3 * g);
+        double latR = Math.toRadians(lat);
+        double ha = Math.toDegrees(Math.acos(Math.cos(Math.toRadians(zenith))
+                / (Math.cos(latR) * Math.cos(decl)) - Math.tan(latR) * Math.tan(decl)));
+        double minutes = 720 - 4 * (sunrise ? lng + ha : lng - ha) - eqTime;
+        return ((minutes / 60) % 24 + 24) % 24;
+    }
+
+    /** Difference between two times of day, allowing for wrap around at midnight. */
+    private static double hoursApart(double a, double b) {
+        return Math.abs(((a - b + 36) % 24) - 12);
+    }
+
+    @Test
+    void testGlobalGrid() {
+        // every 15 degrees of latitude (away from the poles) and 30 degrees of longitude.
+        int lats = 9;
+        int lngs = 12;
+        double[] lat = new double[lats * lngs];
+        double[] lng = new double[lats * lngs];
+        for (int i = 0; i < lat.length; i++) {
+            lat[i] = -60 + 15 * (i / lngs);
+            lng[i] = -180 + 30 * (i % lngs);
+        }
+        int days = 365;
+        float[] rise = new float[lat.length * days];
+        float[] set = new float[lat.length * days];
+        SunCalculator.calculateBatch(lat, lng, 1, days, rise, set);
+        for (int i = 0; i < lat.length; i++) {
+            for (int d = 0; d < days; d++) {
+                String where = "lat,lng=" + lat[i] + "," + lng[i] + " day=" + (d + 1);
+                double expRise = noaaUniversalTime(lat[i], lng[i], d + 1, true);
+                double expSet = noaaUniversalTime(lat[i], lng[i], d + 1, false);
+                // the two algorithms agree within 5 minutes everywhere on this grid.
+                assertTrue(hoursApart(expRise, rise[i * days + d]) < 0.1, "sunrise at " + where);
+                assertTrue(hoursApart(expSet, set[i * days + d]) < 0.1, "sunset at " + where);
+            }
+        }
+    }
+
+    @Test
+    void testBatchSameAsSingle() {
+        double[] lat = {-26.71683, 47.246, 69.65, -77.85};
+        double[] lng = {153.057333, 5.9876, 18.96, 166.67};
+        int days = 366;
+        float[] rise = new float[lat.length * days];
+        float[] set = new float[lat.length * days];
+        SunCalculator.calculateBatch(lat, lng, 1, days, rise, set);
+        double[] result = new double[2];
+        for (int i = 0; i < lat.length; i++) {
+            for (int d = 0; d < days; d++) {
+                SunCalculator.calculateDayOfYear(d + 1, lat[i], lng[i], 0.0, result);
+                assertEquals((float) result[SunCalculator.RISE], rise[i * days + d]);
+                assertEquals((float) result[SunCalculator.SET], set[i * days + d]);
+            }
+        }
+    }
+
+    @Test
+    void testParallelBatch() {
+        // big enough to be split across several threads.
+        int n = 200;
+        double[] lat = new double[n];
+        double[] lng = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = -89.5 + 179.0 * i / n;
+            lng[i] = -180 + 360.0 * i / n;
+        }
+        int days = 100;
+        assertTrue(n * days >= SunCalculator.PARALLEL_THRESHOLD * 4);
+        float[] rise = new float[n * days];
+        float[] set = new float[n * days];
+        SunCalculator.calculateBatch(lat, lng, 150, days, rise, set);
+        double[] result = new double[2];
+        for (int i = 0; i < n; i += 7) {
+            for (int d = 0; d < days; d += 3) {
+                SunCalculator.calculateDayOfYear(150 + d, lat[i], lng[i], 0.0, result);
+                assertEquals((float) result[SunCalculator.RISE], rise[i * days + d]);
+                assertEquals((float) result[SunCalculator.SET], set[i * days + d]);
+            }
+        }
+    }
+
+    @Test
+    void testDayOfYear() {
+        for (LocalDate date = LocalDate.of(1896, 1, 1); date.getYear() < 2104; date = date.plusDays(1)) {
+            assertEquals(date.getDayOfYear(), SunCalculator.dayOfYear(date.toEpochDay()), date.toString());
+        }
+    }
+
+    @Test
+    void testEpochDaySameAsCalendar() {
+        Calendar jun22 = Calendar.getInstance(TimeZone.getTimeZone("Australia/Brisbane"));
+        jun22.set(2018, 5, 22, 0, 0, 0);
+        SunCalculator sun = new SunCalculator();
+        sun.calculateSunRiseSet(-26.71683, 153.057333, jun22);
+        double[] result = new double[2];
+        SunCalculator.calculate(LocalDate.of(2018, 6, 22).toEpochDay(), -26.71683, 153.057333, 10.0, result);
+        assertEquals(sun.getSunrise(), (float) result[SunCalculator.RISE]);
+        assertEquals(sun.getSunset(), (float) result[SunCalculator.SET]);
+    }
+
+    @Test
+    void testTwilightGrid() {
+        double[] zenith = {90.833, 96, 102, 108};
+        double[] result = new double[SunCalculator.TWILIGHT_RESULTS];
+        for (int lat = -45; lat <= 45; lat += 15) {
+            for (int lng = -180; lng < 180; lng += 45) {
+                for (int day = 1; day <= 365; day += 5) {
+                    SunCalculator.calculateTwilightDayOfYear(day, lat, lng, 0.0, result);
+                    for (int p = 0; p < zenith.length; p++) {
+                        String where = "zenith=" + zenith[p] + " lat,lng=" + lat + "," + lng + " day=" + day;
+                        double rise = noaaUniversalTime(lat, lng, day, true, zenith[p]);
+                        double set = noaaUniversalTime(lat, lng, day, false, zenith[p]);
+                        assertTrue(hoursApart(rise, result[2 * p + SunCalculator.RISE]) < 0.1, "dawn at " + where);
+                        assertTrue(hoursApart(set, result[2 * p + SunCalculator.SET]) < 0.1, "dusk at " + where);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testTwilightOrder() {
+        double[] sun = new double[2];
+        double[] twilight = new double[SunCalculator.TWILIGHT_RESULTS];
+        long dec22 = LocalDate.of(2018, 12, 22).toEpochDay();
+        SunCalculator.calculate(dec22, -26.71683, 153.057333, 10.0, sun);
+        SunCalculator.calculateTwilight(dec22, -26.71683, 153.057333, 10.0, twilight);
+        assertEquals(sun[SunCalculator.RISE], twilight[SunCalculator.HORIZON + SunCalculator.RISE], 0.0);
+        assertEquals(sun[SunCalculator.SET], twilight[SunCalculator.HORIZON + SunCalculator.SET], 0.0);
+        for (int p = SunCalculator.CIVIL; p <= SunCalculator.ASTRONOMICAL; p += 2) {
+            // each kind of twilight starts earlier and ends later than the previous one.
+            assertTrue(twilight[p + SunCalculator.RISE] < twilight[p - 2 + SunCalculator.RISE]);
+            assertTrue(twilight[p + SunCalculator.SET] > twilight[p - 2 + SunCalculator.SET]);
+        }
+    }
+
+    @Test
+    void testTwilightAllNight() {
+        // in London at midsummer, the sun only gets 15 degrees below the horizon.
+        double[] twilight = new double[SunCalculator.TWILIGHT_RESULTS];
+        SunCalculator.calculateTwilight(LocalDate.of(2018, 6, 22).toEpochDay(), 51.5074, -0.1278, 1.0, twilight);
+        assertEquals(SunCalculator.ALWAYS_UP, twilight[SunCalculator.ASTRONOMICAL + SunCalculator.RISE], 0.0);
+        assertEquals(SunCalculator.ALWAYS_UP, twilight[SunCalculator.ASTRONOMICAL + SunCalculator.SET], 0.0);
+        assertFalse(Double.isInfinite(twilight[SunCalculator.NAUTICAL + SunCalculator.SET]));
+    }
 }
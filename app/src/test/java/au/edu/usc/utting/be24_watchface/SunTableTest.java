@@ -0,0 +1,69 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the yearly sunrise/sunset tables, including the polar cases.
+ */
+class SunTableTest {
+
+    @Test
+    void testSameAsCalculator() {
+        Locale qld = new Locale("au", "au");
+        TimeZone brisbane = TimeZone.getTimeZone("Australia/Brisbane");
+        Calendar dec22 = Calendar.getInstance(brisbane, qld);
+        dec22.set(2018, 11, 22, 0, 0, 0);
+        double lat = -26.71683;
+        double lng = 153.057333;
+        SunCalculator sun = new SunCalculator();
+        sun.calculateSunRiseSet(lat, lng, dec22);
+
+        SunTable table = SunTable.forLocation(lat, lng, null);
+        int day = dec22.get(Calendar.DAY_OF_YEAR);
+        // the table is for the centre of the cell, so it may differ by up to half a minute.
+        assertEquals(sun.getSunrise(), SunCalculator.toLocalTime(table.sunrise(day), 10.0), 0.01);
+        assertEquals(sun.getSunset(), SunCalculator.toLocalTime(table.sunset(day), 10.0), 0.01);
+        assertTrue(table.covers(lat + 0.01, lng - 0.01));
+        assertFalse(table.covers(lat + 1.0, lng));
+    }
+
+    @Test
+    void testPolarDayAndNight() {
+        // Tromsø, Norway.
+        SunTable table = SunTable.forLocation(69.65, 18.96, null);
+        int jun21 = 172;
+        int dec21 = 355;
+        assertEquals(SunCalculator.ALWAYS_UP, table.sunrise(jun21), 0.0);
+        assertEquals(SunCalculator.ALWAYS_UP, table.sunset(jun21), 0.0);
+        assertEquals(SunCalculator.ALWAYS_DOWN, table.sunrise(dec21), 0.0);
+        assertEquals(SunCalculator.ALWAYS_DOWN, table.sunset(dec21), 0.0);
+        // but in March it rises and sets as usual.
+        assertFalse(Float.isInfinite(table.sunrise(80)));
+        assertFalse(Float.isInfinite(table.sunset(80)));
+    }
+
+    @Test
+    void testSavedTable() throws IOException {
+        File dir = Files.createTempDirectory("suntable").toFile();
+        SunTable table1 = SunTable.forLocation(47.21, 5.9876, dir);
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        SunTable table2 = SunTable.forLocation(47.24, 5.99, dir);
+        assertEquals(1, dir.listFiles().length);
+        for (int day = 1; day <= SunTable.DAYS; day++) {
+            assertEquals(table1.sunrise(day), table2.sunrise(day));
+            assertEquals(table1.sunset(day), table2.sunset(day));
+        }
+        assertTrue(files[0].delete());
+        assertTrue(dir.delete());
+    }
+}
@@ -0,0 +1,48 @@
+package au.edu.usc.utting.be24_watchface;
+
+import java.util.Random;
+
+/**
+ * A repeatable busy calendar, for the render tests and the JMH benchmarks.
+ *
+ * Mostly half-hour to two-hour meetings on the quarter hour, with a few all-day ones,
+ * from four calendars.  This is plain Java, so the benchmarks module can compile it too.
+ */
+final class SyntheticAppointments {
+    static final int[] COLORS = {0xFF4285F4, 0xFFDB4437, 0xFFF4B400, 0xFF0F9D58};
+
+    final int size;
+    final float[] startHours;
+    final float[] endHours;
+    final boolean[] allDay;
+    final int[] colors;
+
+    /**
+     * Generates the given number of appointments (always the same ones).
+     *
+     * @param count how many appointments.
+     */
+    SyntheticAppointments(int count) {
+        Random random = new Random(42);
+        size = count;
+        startHours = new float[count];
+        endHours = new float[count];
+        allDay = new boolean[count];
+        colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            startHours[i] = random.nextInt(24 * 4) / 4f;
+            endHours[i] = startHours[i] + (2 + random.nextInt(7)) / 4f;
+            allDay[i] = random.nextInt(10) == 0;
+            colors[i] = COLORS[i % COLORS.length];
+        }
+    }
+
+    /** Builds the appointments, as the face would show them. */
+    Appointments build() {
+        Appointments.Builder builder = new Appointments.Builder();
+        for (int i = 0; i < size; i++) {
+            builder.add(startHours[i], endHours[i], allDay[i], colors[i]);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,104 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the cached local time arithmetic, especially on daylight-saving days.
+ */
+class TimeBaseTest {
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final long ONE_HOUR_MS = 60 * 60 * 1000L;
+
+    private static long millis(String isoInstant) {
+        return ZonedDateTime.parse(isoInstant).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void testOrdinaryDay() {
+        TimeBase time = new TimeBase(ZoneId.of("Australia/Brisbane"));
+        long now = millis("2019-06-21T13:45:30+10:00[Australia/Brisbane]");
+        assertEquals(13.75f, time.hours(now), 1e-6f);
+        assertEquals(13.7583f, time.exactHours(now), 1e-4f);
+        assertEquals(LocalDate.of(2019, 6, 21).toEpochDay(), time.epochDay());
+        assertEquals(millis("2019-06-21T00:00+10:00[Australia/Brisbane]"), time.midnight());
+        assertEquals(time.midnight() + 24 * ONE_HOUR_MS, time.nextMidnight());
+    }
+
+    @Test
+    void testSpringForward() {
+        // 2am EST jumps to 3am EDT, so the day has only 23 hours.
+        TimeBase time = new TimeBase(NEW_YORK);
+        long before = millis("2019-03-10T01:30-05:00[America/New_York]");
+        assertEquals(1.5f, time.hours(before), 1e-6f);
+        assertEquals(23 * ONE_HOUR_MS, time.nextMidnight() - time.midnight());
+        // one hour later, the clock shows 3:30.
+        assertEquals(3.5f, time.hours(before + ONE_HOUR_MS), 1e-6f);
+        assertEquals(-4 * ONE_HOUR_MS, time.offset());
+        assertEquals(23 * ONE_HOUR_MS, time.nextMidnight() - time.midnight());
+    }
+
+    @Test
+    void testFallBack() {
+        // 2am EDT goes back to 1am EST, so the day has 25 hours, and 1:xx happens twice.
+        TimeBase time = new TimeBase(NEW_YORK);
+        long first = millis("2019-11-03T01:30-04:00[America/New_York]");
+        assertEquals(1.5f, time.hours(first), 1e-6f);
+        assertEquals(25 * ONE_HOUR_MS, time.nextMidnight() - time.midnight());
+        assertEquals(1.5f, time.hours(first + ONE_HOUR_MS), 1e-6f);
+        assertEquals(2.5f, time.hours(first + 2 * ONE_HOUR_MS), 1e-6f);
+        // and back again, as if the clock was adjusted.
+        assertEquals(1.5f, time.hours(first), 1e-6f);
+        assertEquals(-4 * ONE_HOUR_MS, time.offset());
+    }
+
+    @Test
+    void testRollover() {
+        TimeBase time = new TimeBase(NEW_YORK);
+        long midnight = millis("2019-11-04T00:00-05:00[America/New_York]");
+        time.update(midnight - 1);
+        long yesterday = time.epochDay();
+        assertEquals(midnight, time.nextMidnight());
+        assertEquals(0f, time.hours(midnight), 1e-6f);
+        assertEquals(yesterday + 1, time.epochDay());
+        assertEquals(midnight, time.midnight());
+    }
+
+    @Test
+    void testSetZone() {
+        TimeBase time = new TimeBase(ZoneId.of("UTC"));
+        long now = millis("2019-06-21T22:00Z");
+        assertEquals(22f, time.hours(now), 1e-6f);
+        time.setZone(ZoneId.of("Australia/Brisbane"));
+        assertEquals(8f, time.hours(now), 1e-6f);
+        assertEquals(LocalDate.of(2019, 6, 22).toEpochDay(), time.epochDay());
+    }
+
+    @Test
+    void testSameAsCalendar() {
+        // advance through several years in random steps, as the watch would (but faster).
+        String[] zones = {"America/New_York", "Europe/Paris", "Australia/Lord_Howe",
+                "Australia/Brisbane", "Pacific/Apia", "Asia/Kathmandu"};
+        Random random = new Random(24);
+        for (String id : zones) {
+            TimeBase time = new TimeBase(ZoneId.of(id));
+            Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(id));
+            long now = millis("2010-01-01T00:00Z");
+            long end = millis("2014-01-01T00:00Z");
+            while (now < end) {
+                cal.setTimeInMillis(now);
+                float expected = cal.get(Calendar.HOUR_OF_DAY) + cal.get(Calendar.MINUTE) / 60f;
+                assertEquals(expected, time.hours(now), 1e-4f, id + " at " + now);
+                now += random.nextInt((int) ONE_HOUR_MS * 7);
+            }
+        }
+    }
+}
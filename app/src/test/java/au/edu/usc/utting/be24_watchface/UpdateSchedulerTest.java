@@ -0,0 +1,114 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the interactive update delays.
+ */
+class UpdateSchedulerTest {
+    private static final int RED = 0xFFFF0000;
+
+    /** An arbitrary minute boundary, plus 30 seconds. */
+    private static final long NOW = 28_000_000L * UpdateScheduler.ONE_MINUTE_MS + 30_000L;
+    private static final long LATER = NOW + 24 * 60 * UpdateScheduler.ONE_MINUTE_MS;
+
+    private static float hours(int h, int m, int s) {
+        return h + m / 60f + s / 3600f;
+    }
+
+    private static FaceState state(Appointments appts) {
+        float[] sun = new float[SunCalculator.TWILIGHT_RESULTS];
+        Arrays.fill(sun, Float.POSITIVE_INFINITY);  // midnight sun
+        return new FaceState(0.0, 0.0, sun, 0L, appts, 0L, 0);
+    }
+
+    @Test
+    void testMinutesPerPixel() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(200f);
+        assertEquals(1, scheduler.getMinutesPerPixel());
+        scheduler.setHandLength(50f);
+        assertEquals(4, scheduler.getMinutesPerPixel());
+    }
+
+    @Test
+    void testLargeHandEveryMinute() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(200f);
+        scheduler.setEvents(state(null));
+        assertEquals(30_000L, scheduler.nextDelay(NOW, hours(1, 0, 30), LATER));
+    }
+
+    @Test
+    void testSmallHandSkipsMinutes() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        scheduler.setEvents(state(null));
+        assertEquals(30_000L + 3 * 60_000L, scheduler.nextDelay(NOW, hours(1, 0, 30), LATER));
+    }
+
+    @Test
+    void testQuadrantBoundary() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        scheduler.setEvents(state(null));
+        // wake up exactly at 3:00, when the quarter-hour ticks move.
+        assertEquals(30_000L + 2 * 60_000L, scheduler.nextDelay(NOW, hours(2, 57, 30), LATER));
+    }
+
+    @Test
+    void testAppointmentStart() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        Appointments appts = new Appointments.Builder()
+                .add(hours(1, 2, 0), 2f, false, RED)
+                .add(hours(1, 1, 0), 2f, true, RED)  // all-day appointments are ignored
+                .build();
+        scheduler.setEvents(state(appts));
+        assertEquals(30_000L + 60_000L, scheduler.nextDelay(NOW, hours(1, 0, 30), LATER));
+    }
+
+    @Test
+    void testAppointmentOnNextBoundary() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        Appointments appts = new Appointments.Builder()
+                .add(hours(1, 2, 0), 2f, false, RED)
+                .build();
+        scheduler.setEvents(state(appts));
+        // the appointment starts exactly at the next minute boundary.
+        assertEquals(30_000L, scheduler.nextDelay(NOW, hours(1, 1, 30), LATER));
+    }
+
+    @Test
+    void testMidnight() {
+        UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        scheduler.setEvents(state(null));
+        assertEquals(30_000L, scheduler.nextDelay(NOW, hours(23, 59, 30), NOW + 30_000L));
+        // the day may end early (daylight saving), but never wait past midnight.
+        assertEquals(20_000L, scheduler.nextDelay(NOW, hours(22, 59, 30), NOW + 20_000L));
+    }
+
+    @Test
+    void testNoAllocation() {
+        assertTrue(Allocations.isSupported(), Allocations.UNSUPPORTED);
+        final UpdateScheduler scheduler = new UpdateScheduler();
+        scheduler.setHandLength(50f);
+        final FaceState state = state(new Appointments.Builder().add(9f, 10f, false, RED).build());
+        scheduler.setEvents(state);
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // the same snapshot is passed on every update.
+                scheduler.setEvents(state);
+                scheduler.nextDelay(NOW, hours(8, 30, 30), LATER);
+            }
+        }, 10000);
+        assertTrue(bytes < 10000, bytes + " bytes allocated");
+    }
+}
@@ -0,0 +1,58 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Encoding N calendar instances with AppointmentCodec, and decoding them into a DaySlice
+ * (as when CalendarQueryService passes its results to the face).
+ */
+@State(Scope.Thread)
+public class AppointmentCodecBenchmark {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    @Param({"5", "50", "500"})
+    public int instances;
+
+    private long[] mBegins;
+    private long[] mEnds;
+    private boolean[] mAllDay;
+    private int[] mColors;
+    private byte[] mData;
+
+    @Setup
+    public void setup() {
+        SyntheticAppointments calendar = new SyntheticAppointments(instances);
+        mBegins = new long[instances];
+        mEnds = new long[instances];
+        for (int i = 0; i < instances; i++) {
+            mBegins[i] = (long) (calendar.startHours[i] * HOUR);
+            mEnds[i] = (long) (calendar.endHours[i] * HOUR);
+        }
+        mAllDay = calendar.allDay;
+        mColors = calendar.colors;
+        mData = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        AppointmentCodec.Encoder encoder = new AppointmentCodec.Encoder();
+        for (int i = 0; i < instances; i++) {
+            encoder.add(i, mBegins[i], mEnds[i], mAllDay[i], mColors[i]);
+        }
+        return encoder.toByteArray();
+    }
+
+    @Benchmark
+    public AppointmentIndex.DaySlice decode() throws IOException {
+        AppointmentIndex.DaySlice slice = new AppointmentIndex.DaySlice(0L, DAY);
+        AppointmentCodec.decode(mData, slice);
+        return slice;
+    }
+}
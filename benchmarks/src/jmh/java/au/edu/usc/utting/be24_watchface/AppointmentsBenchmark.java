@@ -0,0 +1,29 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building Appointments from N synthetic calendar instances.
+ * Above Appointments.LOD_THRESHOLD this includes rasterizing them into runs of minutes.
+ */
+@State(Scope.Thread)
+public class AppointmentsBenchmark {
+    @Param({"5", "50", "500"})
+    public int instances;
+
+    private SyntheticAppointments mCalendar;
+
+    @Setup
+    public void setup() {
+        mCalendar = new SyntheticAppointments(instances);
+    }
+
+    @Benchmark
+    public Appointments build() {
+        return mCalendar.build();
+    }
+}
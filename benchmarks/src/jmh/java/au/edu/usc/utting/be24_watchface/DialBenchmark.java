@@ -0,0 +1,26 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The time-to-angle conversions used by the hand, sun pie and appointments
+ * (Be24WatchFace.angle and sweep delegate to these).
+ */
+@State(Scope.Thread)
+public class DialBenchmark {
+    private float mHours = 13.25f;
+
+    @Benchmark
+    public float angle() {
+        mHours = (mHours + 0.01f) % 24f;
+        return Dial.angle(mHours);
+    }
+
+    @Benchmark
+    public float sweep() {
+        mHours = (mHours + 0.01f) % 24f;
+        return Dial.sweep(mHours, 6.5f);
+    }
+}
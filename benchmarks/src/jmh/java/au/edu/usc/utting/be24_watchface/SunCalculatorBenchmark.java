@@ -0,0 +1,51 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Sunrise and sunset calculations, for one location and day.
+ */
+@State(Scope.Thread)
+public class SunCalculatorBenchmark {
+    private static final double LAT = -26.65;  // Sunshine Coast
+    private static final double LNG = 153.07;
+
+    private SunCalculator mCalculator;
+    private Calendar mCalendar;
+    private final double[] mResult = new double[SunCalculator.TWILIGHT_RESULTS];
+    private long mEpochDay;
+
+    @Setup
+    public void setup() {
+        mCalculator = new SunCalculator();
+        mCalendar = Calendar.getInstance(TimeZone.getTimeZone("Australia/Brisbane"));
+        mCalendar.set(2019, Calendar.JUNE, 21, 12, 0, 0);
+        mEpochDay = Math.floorDiv(mCalendar.getTimeInMillis(), 24 * 60 * 60 * 1000L);
+    }
+
+    @Benchmark
+    public void calculateSunRiseSet(Blackhole bh) {
+        mCalculator.calculateSunRiseSet(LAT, LNG, mCalendar);
+        bh.consume(mCalculator.getSunrise());
+        bh.consume(mCalculator.getSunset());
+    }
+
+    @Benchmark
+    public double[] calculate() {
+        SunCalculator.calculate(mEpochDay, LAT, LNG, 10.0, mResult);
+        return mResult;
+    }
+
+    @Benchmark
+    public double[] calculateTwilight() {
+        SunCalculator.calculateTwilight(mEpochDay, LAT, LNG, 10.0, mResult);
+        return mResult;
+    }
+}
@@ -0,0 +1,24 @@
+package au.edu.usc.utting.be24_watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Calculating all the tick endpoints for one screen size (as done in onSurfaceChanged).
+ */
+@State(Scope.Thread)
+public class TickGeometryBenchmark {
+    private static final float CENTER = 200f;
+
+    private final float[] mMajorTicks = new float[TickGeometry.NUMBERS * 4];
+    private final float[][] mHourTicks = new float[TickGeometry.NUMBERS][(TickGeometry.NUMBER_STEP - 1) * 4];
+    private final float[][] mQuarterTicks = new float[TickGeometry.NUMBERS][TickGeometry.NUMBER_STEP * 3 * 4];
+
+    @Benchmark
+    public float[] computeTicks() {
+        TickGeometry.computeTicks(CENTER, CENTER, 180f, 200f, 190f,
+                mMajorTicks, mHourTicks, mQuarterTicks);
+        return mMajorTicks;
+    }
+}